@@ -136,6 +136,8 @@ public class C19XHttpsServer {
 	 * parametersFile		JSON format parameters file, see config/parameters.json
 	 * databaseFolder		Database folder for storing all application data, e.g. device registration
 	 * webFolder			Web site folder for embedded web server
+	 * restoreArchive		Optional device database backup archive to restore into databaseFolder on start,
+	 * 						the folder must not contain device stores, see command=backup of ControlHandler
 	 * 
 	 * @param args
 	 * @throws Exception
@@ -151,17 +153,22 @@ public class C19XHttpsServer {
 		final File databaseFolder = new File(args[6]);
 		final File webFolder = new File(args[7]);
 		final File webAdminFolder = new File(args[8]);
+		final File restoreArchive = (args.length > 9 ? new File(args[9]) : null);
 
 		final AuditLog auditLog = new AuditLog(auditLogFile);
 		final SessionManager sessionManager = new SessionManager(auditLog, usersFile);
-		final Devices devices = new Devices(databaseFolder);
 		final Parameters parameters = new Parameters(parametersFile);
+		if (restoreArchive != null) {
+			Devices.restore(restoreArchive, databaseFolder, parameters);
+		}
+		final Devices devices = new Devices(databaseFolder, parameters);
 
 		final C19XHttpsServer server = new C19XHttpsServer(port, p12KeystoreFile, keystorePasswordFile);
 
 		final SessionHandler sessionHandler = new SessionHandler(sessionManager);
 		final ParametersHandler parametersHandler = new ParametersHandler();
-		final InfectionDataHandler infectionDataHandler = new InfectionDataHandler();
+		final InfectionDataHandler infectionDataHandler = new InfectionDataHandler(
+				new File(databaseFolder, "infectionData"), new File(databaseFolder, "infectionData.snapshot"));
 		final ControlHandler controlHandler = new ControlHandler(sessionManager, auditLog, devices, parameters,
 				infectionDataHandler);
 
@@ -189,6 +196,7 @@ public class C19XHttpsServer {
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
+				devices.close();
 				auditLog.close();
 			}
 		});
@@ -204,6 +212,8 @@ public class C19XHttpsServer {
 			public void run() {
 				// Delete inactive devices
 				devices.clear(parameters.getExpireInactivity());
+				// Release day codes of expired reports
+				devices.unpinExpired(parameters);
 				// Update infection data
 				infectionDataHandler.set(new InfectionData(devices, parameters));
 			}
@@ -0,0 +1,146 @@
+package org.c19x.server.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.c19x.util.Logger;
+
+/**
+ * Compact binary encoding of infection data as an alternative to JSON.
+ *
+ * <pre>
+ * version      byte, currently 1
+ * statusCount  unsigned varint
+ * per status, in ascending order
+ *   status     byte, e.g. 1 = symptomatic, 2 = confirmed diagnosis
+ *   seedCount  unsigned varint
+ *   seeds      unsigned varint delta from previous seed, starting from
+ *              Long.MIN_VALUE, with seeds in ascending order
+ * </pre>
+ *
+ * Seeds are uniformly distributed 64-bit values, thus sorting and delta
+ * encoding saves about log2(seedCount) bits per seed, and the status is stored
+ * once per group rather than once per seed.
+ *
+ * @author user
+ *
+ */
+public class BinaryInfectionData {
+	private final static String tag = BinaryInfectionData.class.getName();
+	public final static String contentType = "application/vnd.c19x.infection-data";
+	public final static byte version = 1;
+
+	/**
+	 * Encode beacon code seeds by status.
+	 *
+	 * @param seeds Beacon code seeds by status, in any order.
+	 * @return
+	 */
+	public final static byte[] encode(final Map<String, long[]> seeds) {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		output.write(version);
+		final Map<Integer, long[]> groups = new TreeMap<>();
+		seeds.forEach((status, values) -> {
+			try {
+				final int value = Integer.parseInt(status);
+				if (value < 0 || value > 255) {
+					throw new NumberFormatException(status);
+				}
+				groups.put(value, values);
+			} catch (NumberFormatException e) {
+				Logger.warn(tag, "Status cannot be encoded, excluded from binary infection data (status={})", status);
+			}
+		});
+		writeVarint(output, groups.size());
+		groups.forEach((status, values) -> {
+			final long[] sorted = values.clone();
+			Arrays.sort(sorted);
+			int count = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i == 0 || sorted[i] != sorted[i - 1]) {
+					count++;
+				}
+			}
+			output.write(status);
+			writeVarint(output, count);
+			long previous = Long.MIN_VALUE;
+			for (int i = 0; i < sorted.length; i++) {
+				if (i == 0 || sorted[i] != sorted[i - 1]) {
+					// Ascending signed order, thus delta is a non-negative unsigned value
+					writeVarint(output, sorted[i] - previous);
+					previous = sorted[i];
+				}
+			}
+		});
+		return output.toByteArray();
+	}
+
+	/**
+	 * Decode beacon code seeds by status.
+	 *
+	 * @param data
+	 * @return Beacon code seeds by status, in ascending order.
+	 * @throws IllegalArgumentException for unsupported version or malformed data.
+	 */
+	public final static Map<String, long[]> decode(final byte[] data) {
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Decode beacon code seeds by status from remaining content of buffer.
+	 *
+	 * @param input
+	 * @return Beacon code seeds by status, in ascending order.
+	 * @throws IllegalArgumentException for unsupported version or malformed data.
+	 */
+	public final static Map<String, long[]> decode(final ByteBuffer input) {
+		try {
+			final byte dataVersion = input.get();
+			if (dataVersion != version) {
+				throw new IllegalArgumentException("Unsupported version (version=" + dataVersion + ")");
+			}
+			final int statusCount = (int) readVarint(input);
+			final Map<String, long[]> seeds = new HashMap<>(statusCount);
+			for (int i = 0; i < statusCount; i++) {
+				final String status = Integer.toString(input.get() & 0xFF);
+				final long[] values = new long[(int) readVarint(input)];
+				long previous = Long.MIN_VALUE;
+				for (int j = 0; j < values.length; j++) {
+					previous += readVarint(input);
+					values[j] = previous;
+				}
+				seeds.put(status, values);
+			}
+			return seeds;
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException) {
+				throw e;
+			}
+			throw new IllegalArgumentException("Malformed data", e);
+		}
+	}
+
+	private final static void writeVarint(final ByteArrayOutputStream output, long value) {
+		while ((value & ~0x7FL) != 0) {
+			output.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		output.write((int) value);
+	}
+
+	private final static long readVarint(final ByteBuffer input) {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			final byte b = input.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+}
@@ -1,37 +1,86 @@
 package org.c19x.server.data;
 
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 
 import org.c19x.util.Logger;
+import org.c19x.util.Sha256;
 
+/**
+ * Day codes of a device, derived from its shared secret via a SHA-256 hash
+ * chain. Only every N-th hash of the chain is retained as a checkpoint, and
+ * the day codes in between are recomputed on demand. A larger checkpoint
+ * interval reduces memory at the cost of up to interval-1 additional hashes
+ * per lookup.
+ * 
+ * @author user
+ *
+ */
 public class DayCodes {
 	private final static String tag = DayCodes.class.getName();
 	private final static long epoch = epoch();
-	private final static int days = 365 * 5;
+	protected final static int days = 365 * 5;
 	private final static long dayMillis = 24 * 60 * 60 * 1000;
-	private final long[] values;
+	protected final static int hashLength = Sha256.length;
+	// Default number of chain hashes between checkpoints, i.e. 29 checkpoints of
+	// 32 bytes each instead of 1825 day codes of 8 bytes each
+	public final static int defaultInterval = 64;
+	private final int interval;
+	// Concatenated chain hashes at positions 0, interval, 2 * interval, ...
+	private final byte[] checkpoints;
 
 	public DayCodes(final byte[] sharedSecret) {
-		values = dayCodes(sharedSecret, days);
+		this(sharedSecret, defaultInterval);
+	}
+
+	/**
+	 * Day codes for shared secret.
+	 * 
+	 * @param sharedSecret
+	 * @param interval     Number of chain hashes between checkpoints, minimum 1.
+	 */
+	public DayCodes(final byte[] sharedSecret, final int interval) {
+		assert (interval >= 1);
+		this.interval = interval;
+		this.checkpoints = checkpoints(sharedSecret, days, interval);
+	}
+
+	private DayCodes(final int interval, final byte[] checkpoints) {
+		this.interval = interval;
+		this.checkpoints = checkpoints;
+	}
+
+	/**
+	 * Restore day codes from previously generated checkpoints.
+	 * 
+	 * @param checkpoints See getCheckpoints().
+	 * @param interval    Interval used for generating the checkpoints.
+	 * @return
+	 */
+	protected final static DayCodes fromCheckpoints(final byte[] checkpoints, final int interval) {
+		assert (checkpoints.length == checkpointsLength(interval));
+		return new DayCodes(interval, checkpoints);
+	}
+
+	/**
+	 * Get size of checkpoints in bytes for checkpoint interval.
+	 * 
+	 * @param interval
+	 * @return
+	 */
+	protected final static int checkpointsLength(final int interval) {
+		return ((days - 1) / interval + 1) * hashLength;
 	}
 
 	public final static long[] beaconCodes(final long beaconCodeSeed, final int count) {
-		final ByteBuffer byteBuffer = ByteBuffer.allocate(Long.BYTES);
-		byteBuffer.putLong(0, beaconCodeSeed);
-		final byte[] data = byteBuffer.array();
 		final long[] codes = new long[count];
 		try {
-			final MessageDigest sha = MessageDigest.getInstance("SHA-256");
-			byte[] hash = sha.digest(data);
+			final Sha256 sha = Sha256.get();
+			final byte[] hash = new byte[hashLength];
+			sha.digest(beaconCodeSeed, true, hash);
 			for (int i = codes.length; i-- > 0;) {
-				codes[i] = longValue(hash);
-				sha.reset();
-//				Logger.debug(tag, "Beacon code (seed={},number={},hash={},code={})", beaconCodeSeed, i,
-//						Base64.getEncoder().encodeToString(hash), codes[i]);
-				hash = sha.digest(hash);
+				codes[i] = Sha256.longValue(hash);
+				sha.next(hash);
 			}
 		} catch (Throwable e) {
 			Logger.warn(tag, "Failed to get codes", e);
@@ -40,34 +89,113 @@ public class DayCodes {
 	}
 
 	protected final static long beaconCodeSeed(final long dayCode) {
-		final ByteBuffer byteBuffer = ByteBuffer.allocate(Long.BYTES);
-		byteBuffer.putLong(0, dayCode);
-		// Reverse bytes
-		final byte[] data = byteBuffer.array();
-		final byte[] reversed = new byte[] { data[7], data[6], data[5], data[4], data[3], data[2], data[1], data[0] };
-		// Hash of reversed
+		// Hash of day code bytes in reverse, i.e. little endian, order
 		try {
-			final MessageDigest sha = MessageDigest.getInstance("SHA-256");
-			final byte[] hash = sha.digest(reversed);
-			final long seed = longValue(hash);
-//			Logger.debug(tag, "seedOf (dayCode={},data={},hash={},seed={})", dayCode, Arrays.toString(data),
-//					Base64.getEncoder().encodeToString(hash), seed);
-			return seed;
+			final byte[] hash = new byte[hashLength];
+			Sha256.get().digest(dayCode, false, hash);
+			return Sha256.longValue(hash);
 		} catch (Throwable e) {
 			Logger.warn(tag, "Failed to transform day code to beacon code seed", e);
 			return 0;
 		}
 	}
 
+	/**
+	 * Transform day codes to beacon code seeds in place.
+	 * 
+	 * @param codes
+	 */
+	protected final static void beaconCodeSeeds(final long[] codes) {
+		try {
+			final Sha256 sha = Sha256.get();
+			final byte[] hash = new byte[hashLength];
+			for (int i = codes.length; i-- > 0;) {
+				sha.digest(codes[i], false, hash);
+				codes[i] = Sha256.longValue(hash);
+			}
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to transform day codes to beacon code seeds", e);
+		}
+	}
+
 	protected final static long[] dayCodes(final byte[] sharedSecret, final int count) {
 		final long[] codes = new long[count];
 		try {
-			final MessageDigest sha = MessageDigest.getInstance("SHA-256");
-			byte[] hash = sha.digest(sharedSecret);
+			final Sha256 sha = Sha256.get();
+			final byte[] hash = new byte[hashLength];
+			sha.digest(sharedSecret, hash);
 			for (int i = codes.length; i-- > 0;) {
-				codes[i] = longValue(hash);
-				sha.reset();
-				hash = sha.digest(hash);
+				codes[i] = Sha256.longValue(hash);
+				sha.next(hash);
+			}
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to get codes", e);
+		}
+		return codes;
+	}
+
+	/**
+	 * Get checkpoints of the day code hash chain. The chain is generated in the
+	 * same order as dayCodes(), i.e. chain position p is day code count - 1 - p.
+	 * 
+	 * @param sharedSecret
+	 * @param count        Number of day codes.
+	 * @param interval     Number of chain hashes between checkpoints.
+	 * @return Concatenated hashes at chain positions 0, interval, 2 * interval, ...
+	 */
+	protected final static byte[] checkpoints(final byte[] sharedSecret, final int count, final int interval) {
+		final byte[] checkpoints = new byte[((count - 1) / interval + 1) * hashLength];
+		try {
+			final Sha256 sha = Sha256.get();
+			final byte[] hash = new byte[hashLength];
+			sha.digest(sharedSecret, hash);
+			for (int position = 0; position < count; position++) {
+				if (position % interval == 0) {
+					System.arraycopy(hash, 0, checkpoints, (position / interval) * hashLength, hashLength);
+				}
+				sha.next(hash);
+			}
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to get checkpoints", e);
+		}
+		return checkpoints;
+	}
+
+	/**
+	 * Regenerate subsequence of day codes from checkpoints.
+	 * 
+	 * @param checkpoints
+	 * @param count       Number of day codes.
+	 * @param interval    Number of chain hashes between checkpoints.
+	 * @param from        Inclusive.
+	 * @param to          Exclusive.
+	 * @return
+	 */
+	protected final static long[] dayCodes(final byte[] checkpoints, final int count, final int interval,
+			final int from, final int to) {
+		if (from < 0 || to > count || from > to) {
+			throw new IndexOutOfBoundsException("from=" + from + ",to=" + to + ",count=" + count);
+		}
+		final long[] codes = new long[to - from];
+		if (codes.length == 0) {
+			return codes;
+		}
+		// Day codes [from, to) are chain positions [count - to, count - 1 - from]
+		final int first = count - to;
+		final int last = count - 1 - from;
+		final int checkpoint = first / interval;
+		try {
+			final Sha256 sha = Sha256.get();
+			final byte[] hash = new byte[hashLength];
+			System.arraycopy(checkpoints, checkpoint * hashLength, hash, 0, hashLength);
+			for (int position = checkpoint * interval; position < first; position++) {
+				sha.next(hash);
+			}
+			for (int position = first; position <= last; position++) {
+				codes[count - 1 - position - from] = Sha256.longValue(hash);
+				if (position < last) {
+					sha.next(hash);
+				}
 			}
 		} catch (Throwable e) {
 			Logger.warn(tag, "Failed to get codes", e);
@@ -95,11 +223,6 @@ public class DayCodes {
 		}
 	}
 
-	private final static long longValue(final byte[] hash) {
-		final ByteBuffer byteBuffer = ByteBuffer.wrap(hash);
-		return byteBuffer.getLong(0);
-	}
-
 	protected final static int today() {
 		final int today = (int) ((System.currentTimeMillis() - epoch) / dayMillis);
 		return today;
@@ -127,22 +250,31 @@ public class DayCodes {
 	 */
 	protected final static long[] getBeaconCodeSeeds(final long[] dayCodes, final int from, final int to) {
 		final long[] codes = Arrays.copyOfRange(dayCodes, from, to);
-		for (int i = codes.length; i-- > 0;) {
-			codes[i] = beaconCodeSeed(codes[i]);
-		}
+		beaconCodeSeeds(codes);
 		return codes;
 	}
 
+	protected int getInterval() {
+		return interval;
+	}
+
+	protected byte[] getCheckpoints() {
+		return checkpoints;
+	}
+
 	public long get() {
-		return values[today()];
+		final int today = today();
+		return getDayCodes(today, today + 1)[0];
 	}
 
 	protected long[] getDayCodes(final int from, final int to) {
-		return getDayCodes(values, from, to);
+		return dayCodes(checkpoints, days, interval, from, to);
 	}
 
 	protected long[] getBeaconCodeSeeds(final int from, final int to) {
-		return getBeaconCodeSeeds(values, from, to);
+		final long[] codes = getDayCodes(from, to);
+		beaconCodeSeeds(codes);
+		return codes;
 	}
 
 	/**
@@ -155,14 +287,14 @@ public class DayCodes {
 		assert (days >= 1);
 		final int to = today() + 1;
 		final int from = to - days;
-		return getDayCodes(values, from, to);
+		return getDayCodes(from, to);
 	}
 
 	public long[] getBeaconCodeSeeds(int days) {
 		assert (days >= 1);
 		final int to = today() + 1;
 		final int from = to - days;
-		return getBeaconCodeSeeds(values, from, to);
+		return getBeaconCodeSeeds(from, to);
 	}
 
 	public String getHumanReadableCode() {
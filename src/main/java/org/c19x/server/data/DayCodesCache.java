@@ -0,0 +1,244 @@
+package org.c19x.server.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.c19x.util.Logger;
+
+/**
+ * Persistent cache of day code checkpoints for fast server startup. The cache
+ * is a memory mapped file of fixed width records addressed by serial number,
+ * written incrementally on registration and read on demand. The file header
+ * records the format version and day code parameters, and a file that does not
+ * match is discarded. Each record carries a present flag, a short hash of the
+ * shared secret, thus records of a replaced device are not served, and a
+ * checksum. A completeness flag that is only set on clean shutdown indicates
+ * whether all registrations are known to have a record.
+ *
+ * @author user
+ *
+ */
+public class DayCodesCache {
+	private final static String tag = DayCodesCache.class.getName();
+	private final static int magic = 0x43313958; // C19X
+	private final static int version = 2;
+	private final static int headerSize = 64;
+	private final static int recordsPerSegment = 1 << 14;
+	// Header fields
+	private final static int magicOffset = 0;
+	private final static int versionOffset = 4;
+	private final static int daysOffset = 8;
+	private final static int intervalOffset = 12;
+	private final static int recordSizeOffset = 16;
+	private final static int completeOffset = 20;
+	// Record fields
+	private final static int serialNumberOffset = 0;
+	private final static int flagsOffset = 8;
+	private final static int secretHashOffset = 12;
+	private final static int checksumOffset = 16;
+	private final static int checkpointsOffset = 20;
+	// Flags
+	private final static int present = 1;
+
+	private final File file;
+	private final int interval;
+	private final int checkpointsLength;
+	private final int recordSize;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel fileChannel;
+	private final MappedByteBuffer header;
+	private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+	private volatile boolean complete;
+
+	/**
+	 * Open or create day codes cache.
+	 *
+	 * @param file     Cache file.
+	 * @param interval Day codes checkpoint interval.
+	 * @throws IOException
+	 */
+	public DayCodesCache(final File file, final int interval) throws IOException {
+		this.file = file;
+		this.interval = interval;
+		this.checkpointsLength = DayCodes.checkpointsLength(interval);
+		this.recordSize = checkpointsOffset + checkpointsLength;
+		this.randomAccessFile = new RandomAccessFile(file, "rw");
+		this.fileChannel = randomAccessFile.getChannel();
+		final boolean existing = fileChannel.size() >= headerSize;
+		this.header = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+		if (existing && isCompatible()) {
+			complete = (header.getInt(completeOffset) == 1);
+			Logger.info(tag, "Opened (file={},complete={})", file, complete);
+		} else {
+			if (existing) {
+				Logger.warn(tag, "Incompatible or corrupt file, discarding (file={},version={},interval={})", file,
+						header.getInt(versionOffset), header.getInt(intervalOffset));
+			}
+			fileChannel.truncate(headerSize);
+			header.putInt(magicOffset, magic);
+			header.putInt(versionOffset, version);
+			header.putInt(daysOffset, DayCodes.days);
+			header.putInt(intervalOffset, interval);
+			header.putInt(recordSizeOffset, recordSize);
+			complete = false;
+			Logger.info(tag, "Created (file={})", file);
+		}
+		// Mark incomplete until close, so records missed by a crash are rebuilt
+		header.putInt(completeOffset, 0);
+		header.force();
+	}
+
+	private boolean isCompatible() {
+		return header.getInt(magicOffset) == magic && header.getInt(versionOffset) == version
+				&& header.getInt(daysOffset) == DayCodes.days && header.getInt(intervalOffset) == interval
+				&& header.getInt(recordSizeOffset) == recordSize;
+	}
+
+	/**
+	 * Cache holds a record for every registration, i.e. it was closed cleanly on
+	 * last shutdown or has since been rebuilt, thus no rebuild is required.
+	 *
+	 * @return
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Declare cache as complete after rebuild.
+	 */
+	public void setComplete() {
+		complete = true;
+	}
+
+	private ByteBuffer record(final long serialNumber) throws IOException {
+		assert (serialNumber >= 0);
+		final long segmentIndex = serialNumber / recordsPerSegment;
+		MappedByteBuffer segment = segments.get(segmentIndex);
+		if (segment == null) {
+			synchronized (segments) {
+				segment = segments.get(segmentIndex);
+				if (segment == null) {
+					final long segmentSize = (long) recordsPerSegment * recordSize;
+					segment = fileChannel.map(FileChannel.MapMode.READ_WRITE, headerSize + segmentIndex * segmentSize,
+							segmentSize);
+					segments.put(segmentIndex, segment);
+				}
+			}
+		}
+		final ByteBuffer record = segment.duplicate();
+		final int offset = (int) (serialNumber % recordsPerSegment) * recordSize;
+		record.position(offset).limit(offset + recordSize);
+		return record.slice();
+	}
+
+	/**
+	 * Checksum of all record fields except the checksum.
+	 */
+	private final static int checksum(final ByteBuffer record) {
+		final CRC32 crc32 = new CRC32();
+		final ByteBuffer fields = record.duplicate();
+		fields.position(serialNumberOffset).limit(checksumOffset);
+		crc32.update(fields);
+		final ByteBuffer checkpoints = record.duplicate();
+		checkpoints.position(checkpointsOffset);
+		crc32.update(checkpoints);
+		return (int) crc32.getValue();
+	}
+
+	private final static int secretHash(final byte[] sharedSecret) {
+		final CRC32 crc32 = new CRC32();
+		crc32.update(sharedSecret);
+		return (int) crc32.getValue();
+	}
+
+	/**
+	 * Get cached day codes.
+	 *
+	 * @param serialNumber
+	 * @param sharedSecret Shared secret of device, for rejecting records of
+	 *                     another secret.
+	 * @return Day codes, or null if not cached, cached for another secret, or
+	 *         record is corrupt.
+	 */
+	public DayCodes get(final long serialNumber, final byte[] sharedSecret) {
+		try {
+			final ByteBuffer record = record(serialNumber);
+			if (record.getInt(flagsOffset) != present || record.getLong(serialNumberOffset) != serialNumber) {
+				return null;
+			}
+			if (record.getInt(secretHashOffset) != secretHash(sharedSecret)) {
+				Logger.warn(tag, "Record of another shared secret (file={},serialNumber={})", file, serialNumber);
+				return null;
+			}
+			if (record.getInt(checksumOffset) != checksum(record)) {
+				Logger.warn(tag, "Corrupt record (file={},serialNumber={})", file, serialNumber);
+				return null;
+			}
+			final byte[] checkpoints = new byte[checkpointsLength];
+			record.position(checkpointsOffset);
+			record.get(checkpoints);
+			return DayCodes.fromCheckpoints(checkpoints, interval);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to get record (file={},serialNumber={})", file, serialNumber, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Cache day codes.
+	 *
+	 * @param serialNumber
+	 * @param sharedSecret Shared secret the day codes were generated from.
+	 * @param dayCodes     Day codes generated with the same checkpoint interval.
+	 */
+	public void put(final long serialNumber, final byte[] sharedSecret, final DayCodes dayCodes) {
+		if (dayCodes.getInterval() != interval) {
+			return;
+		}
+		try {
+			final ByteBuffer record = record(serialNumber);
+			record.putLong(serialNumberOffset, serialNumber);
+			record.putInt(flagsOffset, present);
+			record.putInt(secretHashOffset, secretHash(sharedSecret));
+			record.position(checkpointsOffset);
+			record.put(dayCodes.getCheckpoints());
+			record.putInt(checksumOffset, checksum(record));
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to put record (file={},serialNumber={})", file, serialNumber, e);
+		}
+	}
+
+	public void remove(final long serialNumber) {
+		try {
+			record(serialNumber).putInt(flagsOffset, 0);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to remove record (file={},serialNumber={})", file, serialNumber, e);
+		}
+	}
+
+	/**
+	 * Flush all records to disk and retain completeness flag for next startup.
+	 */
+	public synchronized void close() {
+		if (!fileChannel.isOpen()) {
+			return;
+		}
+		try {
+			segments.values().forEach(segment -> segment.force());
+			header.putInt(completeOffset, (complete ? 1 : 0));
+			header.force();
+			randomAccessFile.close();
+			Logger.info(tag, "Closed (file={})", file);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to close (file={})", file, e);
+		}
+	}
+}
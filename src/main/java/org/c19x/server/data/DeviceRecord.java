@@ -0,0 +1,130 @@
+package org.c19x.server.data;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Objects;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * Immutable record of all data held for a registered device, stored as one
+ * value per serial number so that each logical operation is a single write.
+ * Updates create a modified copy.
+ *
+ * @author user
+ *
+ */
+public class DeviceRecord {
+	public final byte[] sharedSecret;
+	// Status is null if never reported, equivalent to normal (0)
+	public final String status;
+	public final long statusTimestamp;
+	public final String pattern;
+	public final String message;
+	public final long lastSeen;
+
+	public DeviceRecord(final byte[] sharedSecret, final String status, final long statusTimestamp,
+			final String pattern, final String message, final long lastSeen) {
+		this.sharedSecret = sharedSecret;
+		this.status = status;
+		this.statusTimestamp = statusTimestamp;
+		this.pattern = pattern;
+		this.message = message;
+		this.lastSeen = lastSeen;
+	}
+
+	/**
+	 * Record of newly registered device.
+	 *
+	 * @param sharedSecret
+	 */
+	public DeviceRecord(final byte[] sharedSecret) {
+		this(sharedSecret, null, 0, null, null, 0);
+	}
+
+	public DeviceRecord withStatus(final String status, final long statusTimestamp) {
+		return new DeviceRecord(sharedSecret, status, statusTimestamp, pattern, message, lastSeen);
+	}
+
+	public DeviceRecord withPattern(final String pattern) {
+		return new DeviceRecord(sharedSecret, status, statusTimestamp, pattern, message, lastSeen);
+	}
+
+	public DeviceRecord withMessage(final String message) {
+		return new DeviceRecord(sharedSecret, status, statusTimestamp, pattern, message, lastSeen);
+	}
+
+	public DeviceRecord withLastSeen(final long lastSeen) {
+		return new DeviceRecord(sharedSecret, status, statusTimestamp, pattern, message, lastSeen);
+	}
+
+	/**
+	 * Get status, normal (0) if never reported.
+	 *
+	 * @return
+	 */
+	public String getStatus() {
+		return (status == null ? "0" : status);
+	}
+
+	@Override
+	public boolean equals(final Object object) {
+		if (this == object) {
+			return true;
+		}
+		if (!(object instanceof DeviceRecord)) {
+			return false;
+		}
+		final DeviceRecord other = (DeviceRecord) object;
+		return statusTimestamp == other.statusTimestamp && lastSeen == other.lastSeen
+				&& Arrays.equals(sharedSecret, other.sharedSecret) && Objects.equals(status, other.status)
+				&& Objects.equals(pattern, other.pattern) && Objects.equals(message, other.message);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(sharedSecret) * 31 + Objects.hash(status, statusTimestamp, pattern, message, lastSeen);
+	}
+
+	@SuppressWarnings("unchecked")
+	public String toJSON() {
+		final JSONObject j = new JSONObject();
+		j.put("sharedSecret", Base64.getEncoder().encodeToString(sharedSecret));
+		if (status != null) {
+			j.put("status", status);
+			j.put("statusTimestamp", Long.toString(statusTimestamp));
+		}
+		if (pattern != null) {
+			j.put("pattern", pattern);
+		}
+		if (message != null) {
+			j.put("message", message);
+		}
+		if (lastSeen != 0) {
+			j.put("lastSeen", Long.toString(lastSeen));
+		}
+		return j.toJSONString();
+	}
+
+	/**
+	 * Parse record.
+	 *
+	 * @param json
+	 * @return
+	 * @throws IllegalArgumentException for malformed record.
+	 */
+	public final static DeviceRecord fromJSON(final String json) {
+		try {
+			final JSONObject j = (JSONObject) JSONValue.parseWithException(json);
+			final String statusTimestamp = (String) j.get("statusTimestamp");
+			final String lastSeen = (String) j.get("lastSeen");
+			return new DeviceRecord(Base64.getDecoder().decode((String) j.get("sharedSecret")),
+					(String) j.get("status"), (statusTimestamp == null ? 0 : Long.parseLong(statusTimestamp)),
+					(String) j.get("pattern"), (String) j.get("message"),
+					(lastSeen == null ? 0 : Long.parseLong(lastSeen)));
+		} catch (Throwable e) {
+			throw new IllegalArgumentException("Malformed device record", e);
+		}
+	}
+}
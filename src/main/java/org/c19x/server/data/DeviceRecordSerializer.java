@@ -0,0 +1,111 @@
+package org.c19x.server.data;
+
+import java.io.IOException;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+/**
+ * Compact binary encoding of device records for storage.
+ *
+ * <pre>
+ * flags            byte, see below
+ * sharedSecret     packed length, raw bytes
+ * status           byte if numeric status 0-254, else string (statusText)
+ * statusTimestamp  packed long, if status present
+ * pattern          string, if present
+ * message          string, if present
+ * lastSeen         packed long
+ * </pre>
+ *
+ * @author user
+ *
+ */
+public class DeviceRecordSerializer implements Serializer<DeviceRecord> {
+	public final static DeviceRecordSerializer instance = new DeviceRecordSerializer();
+	private final static int statusFlag = 0x01;
+	private final static int statusTextFlag = 0x02;
+	private final static int patternFlag = 0x04;
+	private final static int messageFlag = 0x08;
+
+	/**
+	 * Get numeric status code.
+	 *
+	 * @param status
+	 * @return Status code 0-254, or -1 if status is not numeric or out of range.
+	 */
+	protected final static int statusCode(final String status) {
+		if (status.isEmpty() || status.length() > 3) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = 0; i < status.length(); i++) {
+			final char c = status.charAt(i);
+			if (c < '0' || c > '9' || (i == 0 && c == '0' && status.length() > 1)) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return (value < 255 ? value : -1);
+	}
+
+	@Override
+	public void serialize(final DataOutput2 out, final DeviceRecord value) throws IOException {
+		final int statusCode = (value.status == null ? -1 : statusCode(value.status));
+		int flags = 0;
+		if (value.status != null) {
+			flags |= statusFlag;
+			if (statusCode < 0) {
+				flags |= statusTextFlag;
+			}
+		}
+		if (value.pattern != null) {
+			flags |= patternFlag;
+		}
+		if (value.message != null) {
+			flags |= messageFlag;
+		}
+		out.writeByte(flags);
+		out.packInt(value.sharedSecret.length);
+		out.write(value.sharedSecret);
+		if (value.status != null) {
+			if (statusCode < 0) {
+				Serializer.STRING.serialize(out, value.status);
+			} else {
+				out.writeByte(statusCode);
+			}
+			out.packLong(value.statusTimestamp);
+		}
+		if (value.pattern != null) {
+			Serializer.STRING.serialize(out, value.pattern);
+		}
+		if (value.message != null) {
+			Serializer.STRING.serialize(out, value.message);
+		}
+		out.packLong(value.lastSeen);
+	}
+
+	@Override
+	public DeviceRecord deserialize(final DataInput2 input, final int available) throws IOException {
+		final int flags = input.readUnsignedByte();
+		final byte[] sharedSecret = new byte[input.unpackInt()];
+		input.readFully(sharedSecret);
+		String status = null;
+		long statusTimestamp = 0;
+		if ((flags & statusFlag) != 0) {
+			status = ((flags & statusTextFlag) != 0 ? Serializer.STRING.deserialize(input, -1)
+					: Integer.toString(input.readUnsignedByte()));
+			statusTimestamp = input.unpackLong();
+		}
+		final String pattern = ((flags & patternFlag) != 0 ? Serializer.STRING.deserialize(input, -1) : null);
+		final String message = ((flags & messageFlag) != 0 ? Serializer.STRING.deserialize(input, -1) : null);
+		final long lastSeen = input.unpackLong();
+		return new DeviceRecord(sharedSecret, status, statusTimestamp, pattern, message, lastSeen);
+	}
+
+	@Override
+	public boolean isTrusted() {
+		return true;
+	}
+}
@@ -0,0 +1,432 @@
+package org.c19x.server.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import org.c19x.util.Logger;
+
+/**
+ * Dense table of fixed width device slots addressed by serial number, held
+ * off-heap in memory mapped segments of a file. Serial numbers are issued in
+ * sequence, thus the table is dense, and a lookup is an offset calculation
+ * without per-device Java objects. The table is derived from the device
+ * records store, and it is rebuilt on startup, thus the file is scratch space
+ * that lets the page cache hold the table rather than the heap. A table
+ * without a file uses direct buffers.
+ *
+ * Slot layout (64 bytes, native byte order) :
+ *
+ * <pre>
+ * 0   flags            int, registered (0x01), status code held (0x02), shared secret held (0x04),
+ *                      status text in device record (0x08)
+ * 4   lastSeen         int, day since epoch + 1, 0 if never seen
+ * 8   statusTimestamp  long
+ * 16  status           int, status code 0-254
+ * 20  secretLength     int
+ * 24  version          int, odd while slot is written
+ * 32  sharedSecret     up to 32 bytes
+ * </pre>
+ *
+ * Status text that is not a status code, and longer shared secrets, are only
+ * held in the device record. Slots are written under a sequence lock, the
+ * version is odd while a writer changes the slot, and readers retry if the
+ * version changed while they read, thus readers never see a partially written
+ * slot and take no lock. Last seen is updated atomically on its own.
+ *
+ * @author user
+ *
+ */
+public class DeviceTable {
+	private final static String tag = DeviceTable.class.getName();
+	private final static int slotBits = 6;
+	private final static int segmentBits = 16;
+	private final static int segmentSlots = 1 << segmentBits;
+	private final static int segmentBytes = segmentSlots << slotBits;
+	// Serial numbers are limited to 40 bits, as in the last seen expiry index
+	private final static long maxSerialNumber = (1l << 40) - 1;
+	private final static int flagsOffset = 0;
+	private final static int lastSeenOffset = 4;
+	private final static int statusTimestampOffset = 8;
+	private final static int statusOffset = 16;
+	private final static int secretLengthOffset = 20;
+	private final static int versionOffset = 24;
+	private final static int secretOffset = 32;
+	private final static int maxSecretLength = 32;
+	private final static int registeredFlag = 0x01;
+	private final static int statusFlag = 0x02;
+	private final static int secretFlag = 0x04;
+	private final static int statusTextFlag = 0x08;
+	// Status of device that has never reported, or is not registered
+	public final static int notReported = -1;
+	// Status of device reporting status text, held in device record only
+	public final static int statusText = -2;
+	// Status of slot without a registered device
+	public final static int unregistered = -3;
+	private final static VarHandle intHandle = MethodHandles.byteBufferViewVarHandle(int[].class,
+			ByteOrder.nativeOrder());
+	private final File file;
+	private final FileChannel channel;
+	// Segments by serial number / segment slots, null if not yet allocated
+	private volatile ByteBuffer[] segments = new ByteBuffer[0];
+
+	/**
+	 * Receives status of a slot.
+	 */
+	public interface SlotConsumer {
+		/**
+		 * @param serialNumber
+		 * @param status       Status code 0-254, notReported, statusText or
+		 *                     unregistered.
+		 */
+		void accept(long serialNumber, int status);
+	}
+
+	/**
+	 * Device table in direct buffers.
+	 */
+	public DeviceTable() {
+		this.file = null;
+		this.channel = null;
+	}
+
+	/**
+	 * Device table memory mapped from file. Existing content is discarded.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public DeviceTable(final File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Get segment holding slot of serial number.
+	 *
+	 * @param serialNumber
+	 * @param allocate     Allocate segment if absent.
+	 * @return Segment, or null if absent and not allocated, or serial number is
+	 *         out of range.
+	 */
+	private ByteBuffer segment(final long serialNumber, final boolean allocate) {
+		if (serialNumber < 0 || serialNumber > maxSerialNumber) {
+			return null;
+		}
+		final int index = (int) (serialNumber >>> segmentBits);
+		final ByteBuffer[] segments = this.segments;
+		if (index < segments.length && segments[index] != null) {
+			return segments[index];
+		}
+		return (allocate ? allocate(index) : null);
+	}
+
+	private synchronized ByteBuffer allocate(final int index) {
+		if (index < segments.length && segments[index] != null) {
+			return segments[index];
+		}
+		ByteBuffer segment;
+		try {
+			segment = (channel == null ? ByteBuffer.allocateDirect(segmentBytes)
+					: channel.map(FileChannel.MapMode.READ_WRITE, (long) index * segmentBytes, segmentBytes));
+		} catch (IOException e) {
+			Logger.warn(tag, "Failed to map segment, using direct buffer (file={},segment={})", file, index, e);
+			segment = ByteBuffer.allocateDirect(segmentBytes);
+		}
+		segment.order(ByteOrder.nativeOrder());
+		final ByteBuffer[] segments = Arrays.copyOf(this.segments, Math.max(this.segments.length, index + 1));
+		segments[index] = segment;
+		this.segments = segments;
+		return segment;
+	}
+
+	private final static int offset(final long serialNumber) {
+		return (int) (serialNumber & (segmentSlots - 1)) << slotBits;
+	}
+
+	private final static int flags(final ByteBuffer segment, final int offset) {
+		return (int) intHandle.getAcquire(segment, offset + flagsOffset);
+	}
+
+	/**
+	 * Begin write of slot, waiting for a concurrent writer of the slot.
+	 *
+	 * @return Odd version while writing, see endWrite().
+	 */
+	private final static int beginWrite(final ByteBuffer segment, final int offset) {
+		while (true) {
+			final int version = (int) intHandle.getVolatile(segment, offset + versionOffset);
+			if ((version & 1) == 0
+					&& intHandle.compareAndSet(segment, offset + versionOffset, version, version + 1)) {
+				return version + 1;
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	private final static void endWrite(final ByteBuffer segment, final int offset, final int version) {
+		intHandle.setRelease(segment, offset + versionOffset, version + 1);
+	}
+
+	/**
+	 * Begin read of slot, waiting for a concurrent writer of the slot.
+	 *
+	 * @return Even version, see validate().
+	 */
+	private final static int beginRead(final ByteBuffer segment, final int offset) {
+		while (true) {
+			final int version = (int) intHandle.getAcquire(segment, offset + versionOffset);
+			if ((version & 1) == 0) {
+				return version;
+			}
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Slot was not written since beginRead(), thus values read are consistent.
+	 */
+	private final static boolean validate(final ByteBuffer segment, final int offset, final int version) {
+		VarHandle.acquireFence();
+		return (int) intHandle.getOpaque(segment, offset + versionOffset) == version;
+	}
+
+	/**
+	 * Set slot from device record, except last seen which is held by LastSeen.
+	 *
+	 * @param serialNumber
+	 * @param record
+	 */
+	public void set(final long serialNumber, final DeviceRecord record) {
+		final ByteBuffer segment = segment(serialNumber, true);
+		if (segment == null) {
+			return;
+		}
+		final int offset = offset(serialNumber);
+		final int version = beginWrite(segment, offset);
+		int flags = registeredFlag;
+		final int statusCode = (record.status == null ? -1 : DeviceRecordSerializer.statusCode(record.status));
+		if (statusCode >= 0) {
+			segment.putLong(offset + statusTimestampOffset, record.statusTimestamp);
+			segment.putInt(offset + statusOffset, statusCode);
+			flags |= statusFlag;
+		} else if (record.status != null) {
+			flags |= statusTextFlag;
+		}
+		if (record.sharedSecret.length <= maxSecretLength) {
+			segment.putInt(offset + secretLengthOffset, record.sharedSecret.length);
+			for (int i = 0; i < record.sharedSecret.length; i++) {
+				segment.put(offset + secretOffset + i, record.sharedSecret[i]);
+			}
+			flags |= secretFlag;
+		}
+		// Flags are published last, thus readers of flags alone see the fields they
+		// announce
+		intHandle.setRelease(segment, offset + flagsOffset, flags);
+		endWrite(segment, offset, version);
+	}
+
+	/**
+	 * Clear slot of unregistered device.
+	 *
+	 * @param serialNumber
+	 */
+	public void remove(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		if (segment == null) {
+			return;
+		}
+		final int offset = offset(serialNumber);
+		final int version = beginWrite(segment, offset);
+		intHandle.setRelease(segment, offset + flagsOffset, 0);
+		intHandle.setVolatile(segment, offset + lastSeenOffset, 0);
+		segment.putLong(offset + statusTimestampOffset, 0);
+		segment.putInt(offset + statusOffset, 0);
+		segment.putInt(offset + secretLengthOffset, 0);
+		for (int i = secretOffset; i < (1 << slotBits); i += Long.BYTES) {
+			segment.putLong(offset + i, 0);
+		}
+		endWrite(segment, offset, version);
+	}
+
+	public boolean isRegistered(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		return segment != null && (flags(segment, offset(serialNumber)) & registeredFlag) != 0;
+	}
+
+	/**
+	 * Get shared secret.
+	 *
+	 * @param serialNumber
+	 * @return Copy of shared secret, or null if device is not registered or the
+	 *         shared secret is only held in the device record.
+	 */
+	public byte[] getSharedSecret(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		if (segment == null) {
+			return null;
+		}
+		final int offset = offset(serialNumber);
+		while (true) {
+			final int version = beginRead(segment, offset);
+			byte[] sharedSecret = null;
+			if ((flags(segment, offset) & secretFlag) != 0) {
+				// Length is only valid once validated
+				final int length = segment.getInt(offset + secretLengthOffset);
+				sharedSecret = new byte[Math.max(0, Math.min(maxSecretLength, length))];
+				for (int i = 0; i < sharedSecret.length; i++) {
+					sharedSecret[i] = segment.get(offset + secretOffset + i);
+				}
+			}
+			if (validate(segment, offset, version)) {
+				return sharedSecret;
+			}
+		}
+	}
+
+	/**
+	 * Get status code.
+	 *
+	 * @param serialNumber
+	 * @return Status code 0-254, notReported, or statusText if status is only
+	 *         held in the device record.
+	 */
+	public int getStatus(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		if (segment == null) {
+			return notReported;
+		}
+		final int status = status(segment, offset(serialNumber));
+		return (status == unregistered ? notReported : status);
+	}
+
+	private final static int status(final ByteBuffer segment, final int offset) {
+		while (true) {
+			final int version = beginRead(segment, offset);
+			final int flags = flags(segment, offset);
+			final int status;
+			if ((flags & statusFlag) != 0) {
+				status = segment.getInt(offset + statusOffset);
+			} else if ((flags & statusTextFlag) != 0) {
+				status = statusText;
+			} else {
+				status = ((flags & registeredFlag) == 0 ? unregistered : notReported);
+			}
+			if (validate(segment, offset, version)) {
+				return status;
+			}
+		}
+	}
+
+	/**
+	 * Get status timestamp.
+	 *
+	 * @param serialNumber
+	 * @return Timestamp, or 0 if status is not held in table.
+	 */
+	public long getStatusTimestamp(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		if (segment == null) {
+			return 0;
+		}
+		final int offset = offset(serialNumber);
+		while (true) {
+			final int version = beginRead(segment, offset);
+			final long timestamp = ((flags(segment, offset) & statusFlag) == 0 ? 0
+					: segment.getLong(offset + statusTimestampOffset));
+			if (validate(segment, offset, version)) {
+				return timestamp;
+			}
+		}
+	}
+
+	/**
+	 * Get last seen field.
+	 *
+	 * @param serialNumber
+	 * @return Day since epoch + 1, or 0 if never seen.
+	 */
+	protected int getLastSeen(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		return (segment == null ? 0 : (int) intHandle.getVolatile(segment, offset(serialNumber) + lastSeenOffset));
+	}
+
+	/**
+	 * Atomically set last seen field if it holds the expected value.
+	 *
+	 * @param serialNumber
+	 * @param expected
+	 * @param value
+	 * @return True if set.
+	 * @throws IllegalArgumentException for serial number out of range.
+	 */
+	protected boolean compareAndSetLastSeen(final long serialNumber, final int expected, final int value) {
+		final ByteBuffer segment = segment(serialNumber, true);
+		if (segment == null) {
+			throw new IllegalArgumentException("Serial number out of range (serialNumber=" + serialNumber + ")");
+		}
+		return intHandle.compareAndSet(segment, offset(serialNumber) + lastSeenOffset, expected, value);
+	}
+
+	protected int getAndClearLastSeen(final long serialNumber) {
+		final ByteBuffer segment = segment(serialNumber, false);
+		return (segment == null ? 0 : (int) intHandle.getAndSet(segment, offset(serialNumber) + lastSeenOffset, 0));
+	}
+
+	/**
+	 * Visit all registered devices in serial number order.
+	 *
+	 * @param consumer Receives serial numbers.
+	 */
+	public void forEach(final LongConsumer consumer) {
+		final ByteBuffer[] segments = this.segments;
+		for (int s = 0; s < segments.length; s++) {
+			final ByteBuffer segment = segments[s];
+			if (segment == null) {
+				continue;
+			}
+			for (int i = 0; i < segmentSlots; i++) {
+				if ((flags(segment, i << slotBits) & registeredFlag) != 0) {
+					consumer.accept(((long) s << segmentBits) | i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Visit all slots of allocated segments in serial number order, including
+	 * slots of unregistered devices.
+	 *
+	 * @param consumer Receives serial number and status of each slot.
+	 */
+	public void forEachSlot(final SlotConsumer consumer) {
+		final ByteBuffer[] segments = this.segments;
+		for (int s = 0; s < segments.length; s++) {
+			final ByteBuffer segment = segments[s];
+			if (segment == null) {
+				continue;
+			}
+			for (int i = 0; i < segmentSlots; i++) {
+				consumer.accept(((long) s << segmentBits) | i, status(segment, i << slotBits));
+			}
+		}
+	}
+
+	public void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				Logger.warn(tag, "Failed to close (file={})", file, e);
+			}
+		}
+	}
+}
@@ -1,18 +1,56 @@
 package org.c19x.server.data;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
 
+import javax.crypto.spec.SecretKeySpec;
+
+import org.c19x.util.BoundedCache;
 import org.c19x.util.KeyValueStore;
 import org.c19x.util.Logger;
+import org.c19x.util.MapDBKeyValueStore;
 import org.c19x.util.SecurityUtil;
+import org.c19x.util.StoreCompactor;
+import org.c19x.util.TinyLfuCache;
+import org.mapdb.Serializer;
 
 /**
- * All registered devices.
+ * All registered devices. All data of a device is held in one DeviceRecord,
+ * stored in binary form in the records store under the numeric serial number,
+ * thus each operation is a single commit. Shared secrets, statuses and last
+ * seen days are also held in a dense device table addressed by serial number
+ * for lookups and scans without reading the store. Long scans read from a
+ * snapshot for a consistent view without blocking writers. The storage engine
+ * of the stores is chosen by the storage engine parameter, and the stores are
+ * compacted in the background during low traffic. Stores of earlier versions,
+ * with one store per field or text records, are migrated on startup.
  * 
  * @author user
  *
@@ -20,23 +58,401 @@ import org.c19x.util.SecurityUtil;
 public class Devices {
 	private final static String tag = Devices.class.getName();
 	private final static int sharedSecretLength = 32;
-	private final KeyValueStore parameters;
-	private final KeyValueStore registrations;
-	private final KeyValueStore statuses;
-	private final KeyValueStore patterns;
-	private final KeyValueStore messages;
-	private final KeyValueStore timestamps;
-	private final Map<String, DayCodes> codes;
+	// Maximum number of inactive devices removed in one commit
+	private final static int clearBatch = 1024;
+	// Number of serial numbers reserved in one commit
+	private final static int serialNumberBlock = 1024;
+	// Number of records restored in one commit
+	private final static int restoreBatch = 65536;
+	// Name prefix of stores being restored
+	private final static String restoring = "restoring.";
+	// Number of locks ordering record store and device table writes per device
+	private final static int recordLockCount = 256;
+	// Stores of earlier versions, replaced by records store
+	private final static String[] legacyStores = { "registrations", "statuses", "patterns", "messages",
+			"timestamps" };
+	private final static String legacyRecordStore = "devices";
+	// Status of status code
+	private final static String[] statusCodes = new String[255];
+	static {
+		for (int i = 0; i < statusCodes.length; i++) {
+			statusCodes[i] = Integer.toString(i);
+		}
+	}
+	private final File folder;
+	private final KeyValueStore<String, String> parameters;
+	private final KeyValueStore<Long, DeviceRecord> devices;
+	// Day codes of recently used and reporting devices
+	private final TinyLfuCache<Long, DayCodes> codes;
+	private final int dayCodesInterval;
+	private final DayCodesCache codesCache;
+	private final StatusIndex statusIndex = new StatusIndex();
+	private final DeviceTable table;
+	private final LastSeen lastSeen;
+	private final Timer flushTimer = new Timer("Devices.flush", true);
+	private final StoreCompactor compactor;
+	private final AtomicLong nextSerialNumber;
+	private final BoundedCache<Long, SecretKeySpec> secretKeys;
+	private volatile long reservedSerialNumber;
+	// Device writes hold the lock of the device across the record store write and
+	// the derived table, status index and cache updates, thus concurrent writes of
+	// a device update derived data in the order of the store
+	private final Object[] recordLocks = new Object[recordLockCount];
+	// Writers hold the shared lock, opening a snapshot holds the exclusive lock
+	// until writes in progress are complete
+	private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+	private final List<Snapshot> snapshots = new CopyOnWriteArrayList<>();
+	// Preserved record of device registered after a snapshot was opened
+	private final static DeviceRecord unregistered = new DeviceRecord(new byte[0]);
 
 	public Devices(final File folder) {
-		parameters = new KeyValueStore(new File(folder, "parameters"));
-		registrations = new KeyValueStore(new File(folder, "registrations"));
-		statuses = new KeyValueStore(new File(folder, "statuses"));
-		messages = new KeyValueStore(new File(folder, "messages"));
-		patterns = new KeyValueStore(new File(folder, "patterns"));
-		timestamps = new KeyValueStore(new File(folder, "timestamps"));
-		codes = new ConcurrentHashMap<>();
-		generateCodes();
+		this(folder, new Parameters());
+	}
+
+	/**
+	 * Registered devices.
+	 * 
+	 * @param folder     Database folder.
+	 * @param parameters Server parameters, applied on construction. See day codes
+	 *                   interval, storage engine, store commit, last seen flush
+	 *                   and compaction parameters.
+	 */
+	public Devices(final File folder, final Parameters parameters) {
+		this.folder = folder;
+		Arrays.setAll(recordLocks, i -> new Object());
+		this.dayCodesInterval = parameters.getDayCodesInterval();
+		final String storageEngine = parameters.getStorageEngine();
+		this.parameters = KeyValueStore.open(storageEngine, new File(folder, "parameters"), Serializer.STRING,
+				Serializer.STRING, 0, 1);
+		devices = KeyValueStore.open(storageEngine, new File(folder, "records"), Serializer.LONG,
+				DeviceRecordSerializer.instance, parameters.getStoreCommitInterval(), parameters.getStoreCommitBatch());
+		Logger.info(tag, "Opened stores (engine={})", storageEngine);
+		secretKeys = new BoundedCache<>(parameters.getSecretKeyCacheSize());
+		table = openTable(new File(folder, "deviceTable"));
+		lastSeen = new LastSeen(table);
+		migrateParameters(folder, storageEngine);
+		migrate(folder, storageEngine);
+		codes = new TinyLfuCache<>(parameters.getDayCodesCacheSize());
+		final long maxSerialNumber = indexRecords();
+		// Stored value is the highest reserved, or for earlier versions issued,
+		// serial number, and never below the serial number of a registered device
+		final String serialNumber = this.parameters.get("serialNumber");
+		reservedSerialNumber = (serialNumber == null ? 0 : Long.parseLong(serialNumber));
+		if (maxSerialNumber > reservedSerialNumber) {
+			Logger.warn(tag, "Reserved serial number below registered devices (reserved={},registered={})",
+					reservedSerialNumber, maxSerialNumber);
+			reservedSerialNumber = maxSerialNumber;
+		}
+		nextSerialNumber = new AtomicLong(reservedSerialNumber + 1);
+		codesCache = openCodesCache(new File(folder, "dayCodes"), dayCodesInterval);
+		final int lastSeenFlush = parameters.getLastSeenFlush();
+		if (lastSeenFlush > 0) {
+			final long flushInterval = lastSeenFlush * 60 * 1000l;
+			flushTimer.scheduleAtFixedRate(new TimerTask() {
+				@Override
+				public void run() {
+					flush();
+				}
+			}, flushInterval, flushInterval);
+		} else {
+			Logger.info(tag, "Device activity flushed on close only (lastSeenFlush={})", lastSeenFlush);
+		}
+		final Map<String, KeyValueStore<?, ?>> stores = new LinkedHashMap<>();
+		stores.put("parameters", this.parameters);
+		stores.put("records", devices);
+		final int compactionInterval = parameters.getCompactionInterval();
+		compactor = new StoreCompactor(stores, parameters.getCompactionFreeRatio() / 100d,
+				(long) parameters.getCompactionLowTraffic() * compactionInterval);
+		if (compactionInterval > 0) {
+			compactor.schedule(compactionInterval * 60 * 1000l);
+		}
+		if (codesCache != null && !codesCache.isComplete()) {
+			final Thread thread = new Thread(() -> generateCodes(), "Devices.generateCodes");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Migrate MapDB parameters store, of earlier versions or the mapdb engine,
+	 * into the parameters store of another storage engine, and rename its files
+	 * to [name].migrated unless the engine is memory only. Values already in the
+	 * parameters store are kept.
+	 * 
+	 * @param folder
+	 * @param storageEngine
+	 */
+	private void migrateParameters(final File folder, final String storageEngine) {
+		if (storageEngine.equals(KeyValueStore.mapdb) || !new File(folder, "parameters").exists()) {
+			return;
+		}
+		final KeyValueStore<String, String> store = new MapDBKeyValueStore<>(new File(folder, "parameters"),
+				Serializer.STRING, Serializer.STRING);
+		final Map<String, String> values = new HashMap<>();
+		store.entries().forEach(e -> {
+			if (parameters.get(e.getKey()) == null) {
+				values.put(e.getKey(), e.getValue());
+			}
+		});
+		store.close();
+		parameters.putAll(values).join();
+		if (!storageEngine.equals(KeyValueStore.memory)) {
+			rename(folder, "parameters");
+		}
+		Logger.info(tag, "Migrated parameters (engine={},parameters={})", storageEngine, values.size());
+	}
+
+	/**
+	 * Migrate stores of earlier versions into records store in one commit, and
+	 * rename their files to [name].migrated unless the engine is memory only.
+	 * Values without a registration are discarded.
+	 * 
+	 * @param folder
+	 * @param storageEngine
+	 */
+	private void migrate(final File folder, final String storageEngine) {
+		final boolean fieldStores = new File(folder, "registrations").exists();
+		final boolean recordStore = new File(folder, legacyRecordStore).exists();
+		if (!fieldStores && !recordStore) {
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		final Map<Long, DeviceRecord> records = new HashMap<>();
+		if (fieldStores) {
+			final Map<String, KeyValueStore<String, String>> stores = new HashMap<>();
+			for (final String name : legacyStores) {
+				if (new File(folder, name).exists()) {
+					stores.put(name,
+							new MapDBKeyValueStore<>(new File(folder, name), Serializer.STRING, Serializer.STRING));
+				}
+			}
+			stores.get("registrations").entries().forEach(e -> {
+				final String serialNumber = e.getKey();
+				try {
+					final String status = get(stores, "statuses", serialNumber);
+					final String timestamp = get(stores, "timestamps", serialNumber);
+					records.put(Long.parseLong(serialNumber), new DeviceRecord(
+							Base64.getDecoder().decode(e.getValue()),
+							(status == null ? null : status.substring(0, status.indexOf(','))),
+							(status == null ? 0 : Long.parseLong(status.substring(status.indexOf(',') + 1))),
+							get(stores, "patterns", serialNumber), get(stores, "messages", serialNumber),
+							(timestamp == null ? 0 : Long.parseLong(timestamp))));
+				} catch (Throwable t) {
+					Logger.warn(tag, "Failed to migrate device (serialNumber={})", serialNumber, t);
+				}
+			});
+			stores.values().forEach(store -> store.close());
+		}
+		if (recordStore) {
+			final KeyValueStore<String, String> store = new MapDBKeyValueStore<>(new File(folder, legacyRecordStore),
+					Serializer.STRING, Serializer.STRING);
+			store.entries().forEach(e -> {
+				try {
+					records.put(Long.parseLong(e.getKey()), DeviceRecord.fromJSON(e.getValue()));
+				} catch (Throwable t) {
+					Logger.warn(tag, "Failed to migrate device (serialNumber={})", e.getKey(), t);
+				}
+			});
+			store.close();
+		}
+		devices.putAll(records).join();
+		// Stores in memory are not persisted, thus the legacy stores remain in use
+		if (!storageEngine.equals(KeyValueStore.memory)) {
+			for (final String name : legacyStores) {
+				rename(folder, name);
+			}
+			rename(folder, legacyRecordStore);
+		}
+		Logger.info(tag, "Migrated stores (devices={},elapsed={}ms)", records.size(),
+				System.currentTimeMillis() - start);
+	}
+
+	private final static String get(final Map<String, KeyValueStore<String, String>> stores, final String name,
+			final String serialNumber) {
+		final KeyValueStore<String, String> store = stores.get(name);
+		return (store == null ? null : store.get(serialNumber));
+	}
+
+	/**
+	 * Rename files of migrated MapDB store, i.e. the store file and its write
+	 * ahead log, to [file].migrated. Files of other engines are not renamed.
+	 * 
+	 * @param folder
+	 * @param name
+	 */
+	private final static void rename(final File folder, final String name) {
+		final File[] files = folder.listFiles((dir, fileName) -> fileName.equals(name)
+				|| fileName.startsWith(name + ".wal.") && !fileName.endsWith(".migrated"));
+		for (final File file : files) {
+			if (!file.renameTo(new File(folder, file.getName() + ".migrated"))) {
+				Logger.warn(tag, "Failed to rename migrated store (file={})", file);
+			}
+		}
+	}
+
+	/**
+	 * Get store key of serial number.
+	 * 
+	 * @param serialNumber
+	 * @return Key, or null for invalid serial number.
+	 */
+	private final static Long key(final String serialNumber) {
+		try {
+			return Long.valueOf(serialNumber);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get device record.
+	 * 
+	 * @param serialNumber
+	 * @return Record, or null if device is not registered or record is invalid.
+	 */
+	public DeviceRecord getRecord(final String serialNumber) {
+		final Long key = key(serialNumber);
+		return (key == null ? null : devices.get(key));
+	}
+
+	private Object recordLock(final long serialNumber) {
+		return recordLocks[(int) (serialNumber & (recordLockCount - 1))];
+	}
+
+	private DeviceRecord update(final String serialNumber, final UnaryOperator<DeviceRecord> function) {
+		return update(serialNumber, function, false);
+	}
+
+	/**
+	 * Update device record in one commit, and the device table in the same order
+	 * as the record store.
+	 * 
+	 * @param serialNumber
+	 * @param function     Maps current record to new record.
+	 * @param report       Set status report from new record.
+	 * @return New record, or null if device is not registered.
+	 */
+	private DeviceRecord update(final String serialNumber, final UnaryOperator<DeviceRecord> function,
+			final boolean report) {
+		final Long key = key(serialNumber);
+		if (key == null) {
+			return null;
+		}
+		snapshotLock.readLock().lock();
+		try {
+			synchronized (recordLock(key)) {
+				final DeviceRecord record = devices.update(key, current -> {
+					preserve(key, current);
+					return function.apply(current);
+				});
+				if (record != null) {
+					table.set(key, record);
+					if (report) {
+						setReport(key, record.status, record.statusTimestamp);
+					}
+				}
+				return record;
+			}
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Preserve record of device for open snapshots before it is changed, unless
+	 * already preserved. Caller must hold the shared snapshot lock.
+	 * 
+	 * @param serialNumber
+	 * @param record       Current record, or null if not registered.
+	 */
+	private void preserve(final long serialNumber, final DeviceRecord record) {
+		for (final Snapshot snapshot : snapshots) {
+			snapshot.records.putIfAbsent(serialNumber, (record == null ? unregistered : record));
+		}
+	}
+
+	/**
+	 * Build device table and index of reported statuses, and load last seen days
+	 * from device records.
+	 * 
+	 * @return Highest serial number of registered devices, or 0 if none.
+	 */
+	private long indexRecords() {
+		final AtomicLong maxSerialNumber = new AtomicLong();
+		devices.entries().forEach(e -> {
+			maxSerialNumber.accumulateAndGet(e.getKey(), Math::max);
+			final DeviceRecord record = e.getValue();
+			table.set(e.getKey(), record);
+			if (record.status != null) {
+				setReport(e.getKey(), record.status, record.statusTimestamp);
+			}
+			if (record.lastSeen != 0) {
+				lastSeen.load(e.getKey(), record.lastSeen);
+			}
+		});
+		Logger.info(tag, "Indexed statuses (reports={})", statusIndex.size());
+		return maxSerialNumber.get();
+	}
+
+	/**
+	 * Persist last seen days of devices seen since the previous flush in one
+	 * commit.
+	 */
+	public void flush() {
+		final Map<Long, Integer> changes = lastSeen.drain();
+		if (changes.isEmpty()) {
+			return;
+		}
+		try {
+			final CompletableFuture<Void> future;
+			snapshotLock.readLock().lock();
+			try {
+				future = devices.updateAll(changes.keySet(), (serialNumber, record) -> {
+					final long timestamp = LastSeen.timestamp(changes.get(serialNumber));
+					if (record.lastSeen >= timestamp) {
+						return record;
+					}
+					preserve(serialNumber, record);
+					return record.withLastSeen(timestamp);
+				});
+			} finally {
+				snapshotLock.readLock().unlock();
+			}
+			future.join();
+			Logger.debug(tag, "Flushed last seen (devices={})", changes.size());
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to flush last seen (devices={})", changes.size(), e);
+		}
+	}
+
+	private final static DayCodesCache openCodesCache(final File file, final int dayCodesInterval) {
+		try {
+			return new DayCodesCache(file, dayCodesInterval);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to open day codes cache, generating on demand (file={})", file, e);
+			return null;
+		}
+	}
+
+	private final static DeviceTable openTable(final File file) {
+		try {
+			return new DeviceTable(file);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to open device table, using direct buffers (file={})", file, e);
+			return new DeviceTable();
+		}
+	}
+
+	public void close() {
+		flushTimer.cancel();
+		compactor.close();
+		flush();
+		if (codesCache != null) {
+			codesCache.close();
+		}
+		parameters.close();
+		devices.close();
+		table.close();
 	}
 
 	/**
@@ -45,134 +461,367 @@ public class Devices {
 	 * @param serialNumber
 	 */
 	public void touch(final String serialNumber) {
-		timestamps.put(serialNumber, Long.toString(System.currentTimeMillis()));
+		final Long key = key(serialNumber);
+		if (key != null && table.isRegistered(key)) {
+			lastSeen.touch(key, System.currentTimeMillis());
+		}
 	}
 
+	/**
+	 * Unregister devices last seen before retention period, at day resolution.
+	 * 
+	 * @param retention Retention period in days.
+	 */
 	public void clear(final long retention) {
-		final long deleteBefore = System.currentTimeMillis() - (retention * 24 * 60 * 60 * 1000);
-		timestamps.entries().forEach(e -> {
-			final long timestamp = Long.parseLong(e.getValue());
-			if (timestamp < deleteBefore) {
-				final String serialNumber = e.getKey();
-				unregister(serialNumber);
-				Logger.debug(tag, "Unregistered (serialNumber={},timestamp={})", serialNumber, new Date(timestamp));
+		final long start = System.currentTimeMillis();
+		final long deleteBefore = start - (retention * 24 * 60 * 60 * 1000);
+		final List<Long> expired = new ArrayList<>(lastSeen.before(LastSeen.day(deleteBefore)));
+		for (int i = 0; i < expired.size(); i += clearBatch) {
+			final List<Long> batch = expired.subList(i, Math.min(i + clearBatch, expired.size()));
+			final CompletableFuture<Void> future;
+			snapshotLock.readLock().lock();
+			try {
+				for (final long serialNumber : batch) {
+					preserve(serialNumber, devices.get(serialNumber));
+				}
+				future = devices.removeAll(batch);
+				for (final long serialNumber : batch) {
+					Logger.debug(tag, "Unregistered (serialNumber={},timestamp={})", serialNumber,
+							new Date(LastSeen.timestamp(lastSeen.get(serialNumber))));
+					forget(serialNumber);
+				}
+			} finally {
+				snapshotLock.readLock().unlock();
 			}
-		});
+			future.join();
+		}
+		Logger.info(tag, "Cleared inactive devices (unregistered={},elapsed={}ms)", expired.size(),
+				System.currentTimeMillis() - start);
 	}
 
 	public void unregister(final String serialNumber) {
-		registrations.remove(serialNumber);
-		statuses.remove(serialNumber);
-		messages.remove(serialNumber);
-		patterns.remove(serialNumber);
-		timestamps.remove(serialNumber);
-		codes.remove(serialNumber);
+		final Long key = key(serialNumber);
+		if (key == null) {
+			return;
+		}
+		snapshotLock.readLock().lock();
+		try {
+			preserve(key, devices.get(key));
+			devices.remove(key);
+			forget(key);
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
 	}
 
+	/**
+	 * Remove unregistered device from memory and day codes cache.
+	 * 
+	 * @param serialNumber
+	 */
+	private void forget(final long serialNumber) {
+		final String key = Long.toString(serialNumber);
+		// Follows any update of the device that preceded its removal from the store
+		synchronized (recordLock(serialNumber)) {
+			lastSeen.remove(serialNumber);
+			table.remove(serialNumber);
+			secretKeys.remove(serialNumber);
+			statusIndex.remove(key);
+			codes.remove(serialNumber);
+			if (codesCache != null) {
+				codesCache.remove(serialNumber);
+			}
+		}
+	}
+
+	/**
+	 * Rebuild missing and corrupt day codes cache records in the background.
+	 */
 	protected void generateCodes() {
-		registrations.entries().parallelStream().forEach(e -> {
-			final String serialNumber = e.getKey();
-			final byte[] sharedSecret = Base64.getDecoder().decode(e.getValue());
-			final DayCodes c = new DayCodes(sharedSecret);
-			codes.put(serialNumber, c);
+		final long start = System.currentTimeMillis();
+		final AtomicLong generated = new AtomicLong();
+		devices.read(entries -> {
+			entries.parallelStream().forEach(e -> {
+				try {
+					final long serialNumber = e.getKey();
+					final byte[] sharedSecret = e.getValue().sharedSecret;
+					if (codesCache.get(serialNumber, sharedSecret) == null) {
+						codesCache.put(serialNumber, sharedSecret, new DayCodes(sharedSecret, dayCodesInterval));
+						generated.incrementAndGet();
+					}
+				} catch (Throwable t) {
+					Logger.warn(tag, "Failed to generate codes (serialNumber={})", e.getKey(), t);
+				}
+			});
+			return null;
 		});
+		codesCache.setComplete();
+		Logger.info(tag, "Generated codes (generated={},elapsed={}ms)", generated.get(),
+				System.currentTimeMillis() - start);
 	}
 
+	/**
+	 * Allocate serial number. Serial numbers are reserved in blocks, with the
+	 * highest reserved serial number stored before any serial number in the block
+	 * is issued, thus a restart continues after the reserved block. Numbers not
+	 * issued before a restart are skipped, but never issued twice.
+	 * 
+	 * @return
+	 */
 	protected String getSerialNumber() {
-		synchronized (parameters) {
-			String value = parameters.get("serialNumber");
-			if (value == null) {
-				parameters.put("serialNumber", "1");
-				return "1";
-			} else {
-				value = Long.toString(Long.parseLong(value) + 1);
-				parameters.put("serialNumber", value);
-				return value;
-			}
+		final long serialNumber = nextSerialNumber.getAndIncrement();
+		if (serialNumber > reservedSerialNumber) {
+			reserveSerialNumbers(serialNumber);
+		}
+		return Long.toString(serialNumber);
+	}
+
+	/**
+	 * Durably reserve next block of serial numbers to include serial number.
+	 * 
+	 * @param serialNumber
+	 */
+	private synchronized void reserveSerialNumbers(final long serialNumber) {
+		if (serialNumber <= reservedSerialNumber) {
+			return;
 		}
+		final long reserved = serialNumber + serialNumberBlock - 1;
+		parameters.put("serialNumber", Long.toString(reserved)).join();
+		reservedSerialNumber = reserved;
+		Logger.debug(tag, "Reserved serial numbers (from={},to={})", serialNumber, reserved);
 	}
 
 	protected String register(final String serialNumber, final byte[] sharedSecret) {
 		final String sharedSecretInBase64 = Base64.getEncoder().encodeToString(sharedSecret);
-		registrations.put(serialNumber, sharedSecretInBase64);
-		codes.put(serialNumber, new DayCodes(sharedSecret));
+		final long key = Long.parseLong(serialNumber);
+		final DeviceRecord record = new DeviceRecord(sharedSecret);
+		final DayCodes c = new DayCodes(sharedSecret, dayCodesInterval);
+		final CompletableFuture<Void> future;
+		snapshotLock.readLock().lock();
+		try {
+			preserve(key, null);
+			synchronized (recordLock(key)) {
+				future = devices.put(key, record);
+				table.set(key, record);
+				if (codesCache != null) {
+					codesCache.put(key, sharedSecret, c);
+				}
+			}
+		} finally {
+			snapshotLock.readLock().unlock();
+		}
+		// Registration must be durable before the shared secret is issued
+		future.join();
 		return serialNumber + "," + sharedSecretInBase64;
 	}
 
 	public String register() {
-		synchronized (registrations) {
-			final String serialNumber = getSerialNumber();
-			final byte[] sharedSecret = new byte[sharedSecretLength];
-			SecurityUtil.getSecureRandom().nextBytes(sharedSecret);
-			return register(serialNumber, sharedSecret);
-		}
+		final String serialNumber = getSerialNumber();
+		final byte[] sharedSecret = new byte[sharedSecretLength];
+		SecurityUtil.getSecureRandom().nextBytes(sharedSecret);
+		return register(serialNumber, sharedSecret);
 	}
 
 	public byte[] getSharedSecret(final String serialNumber) {
-		final String sharedSecretInBase64 = registrations.get(serialNumber);
-		if (sharedSecretInBase64 != null) {
-			return Base64.getDecoder().decode(sharedSecretInBase64);
-		} else {
+		final Long key = key(serialNumber);
+		return (key == null ? null : getSharedSecret(key));
+	}
+
+	private byte[] getSharedSecret(final long serialNumber) {
+		final byte[] sharedSecret = table.getSharedSecret(serialNumber);
+		if (sharedSecret != null || !table.isRegistered(serialNumber)) {
+			return sharedSecret;
+		}
+		// Shared secret too long for table
+		final DeviceRecord record = devices.get(serialNumber);
+		return (record == null ? null : record.sharedSecret);
+	}
+
+	/**
+	 * Get key for decrypting requests from device, from a bounded cache of
+	 * recently used keys.
+	 * 
+	 * @param serialNumber
+	 * @return Key, or null if device is not registered.
+	 */
+	public SecretKeySpec getSecretKey(final String serialNumber) {
+		final Long key = key(serialNumber);
+		if (key == null) {
 			return null;
 		}
+		return secretKeys.get(key, k -> {
+			final byte[] sharedSecret = getSharedSecret(k);
+			return (sharedSecret == null ? null : SecurityUtil.getSecretKey(sharedSecret));
+		});
+	}
+
+	/**
+	 * Set status report of device, and pin day codes of devices reporting a status
+	 * other than normal (0) in memory, as they are needed for every infection data
+	 * update until the report expires, see unpinExpired().
+	 * 
+	 * @param serialNumber
+	 * @param status
+	 * @param timestamp
+	 */
+	private void setReport(final long serialNumber, final String status, final long timestamp) {
+		statusIndex.set(Long.toString(serialNumber), status, timestamp);
+		if (status == null || status.equals("0")) {
+			codes.unpin(serialNumber);
+		} else {
+			codes.pin(serialNumber);
+		}
+	}
+
+	/**
+	 * Unpin day codes of devices with expired reports, as expired reports are
+	 * excluded from infection data, thus only day codes of current reports remain
+	 * pinned in memory.
+	 * 
+	 * @param parameters Report expiry parameters.
+	 * @return Number of devices unpinned.
+	 */
+	public int unpinExpired(final Parameters parameters) {
+		final long now = System.currentTimeMillis();
+		int unpinned = 0;
+		for (final String status : statusIndex.getStatuses()) {
+			final long since = InfectionData.since(status, parameters, now);
+			for (final StatusIndex.Report report : statusIndex.getBefore(status, since)) {
+				if (codes.unpin(Long.parseLong(report.serialNumber))) {
+					unpinned++;
+				}
+			}
+		}
+		Logger.debug(tag, "Unpinned day codes of expired reports (unpinned={})", unpinned);
+		return unpinned;
 	}
 
+	/**
+	 * Get day codes from bounded memory cache, or on miss from the day codes cache
+	 * or the shared secret.
+	 * 
+	 * @param serialNumber
+	 * @return Day codes, or null if device is not registered.
+	 */
 	public DayCodes getCodes(final String serialNumber) {
-		DayCodes c = codes.get(serialNumber);
+		final Long key = key(serialNumber);
+		return (key == null ? null : codes.get(key, k -> loadCodes(k)));
+	}
+
+	private DayCodes loadCodes(final long serialNumber) {
+		final byte[] sharedSecret = getSharedSecret(serialNumber);
+		if (sharedSecret == null) {
+			return null;
+		}
+		DayCodes c = (codesCache == null ? null : codesCache.get(serialNumber, sharedSecret));
 		if (c == null) {
-			final byte[] sharedSecret = getSharedSecret(serialNumber);
-			c = new DayCodes(sharedSecret);
-			codes.put(serialNumber, c);
+			c = new DayCodes(sharedSecret, dayCodesInterval);
+			if (codesCache != null) {
+				codesCache.put(serialNumber, sharedSecret, c);
+			}
 		}
 		return c;
 	}
 
-	public void setStatus(final String serialNumber, final String status) {
-		final String value = status + "," + Long.toString(System.currentTimeMillis());
-		statuses.put(serialNumber, value);
+	/**
+	 * Set status.
+	 * 
+	 * @param serialNumber
+	 * @param status
+	 * @return Future that completes when the status is committed.
+	 */
+	public CompletableFuture<Void> setStatus(final String serialNumber, final String status) {
+		final long timestamp = System.currentTimeMillis();
+		update(serialNumber, record -> record.withStatus(status, timestamp), true);
+		return devices.sync();
+	}
+
+	/**
+	 * Set status and contact pattern in one commit.
+	 * 
+	 * @param serialNumber
+	 * @param status
+	 * @param pattern
+	 * @return Future that completes when the status is committed.
+	 */
+	public CompletableFuture<Void> setStatus(final String serialNumber, final String status, final String pattern) {
+		final long timestamp = System.currentTimeMillis();
+		update(serialNumber, record -> record.withStatus(status, timestamp).withPattern(pattern), true);
+		return devices.sync();
 	}
 
 	public String getStatus(final String serialNumber) {
-		final String value = statuses.get(serialNumber);
-		if (value == null) {
-			return "0";
+		final Long key = key(serialNumber);
+		return (key == null ? "0" : getStatus(key, table.getStatus(key)));
+	}
+
+	/**
+	 * Get status from status code of device table.
+	 * 
+	 * @param serialNumber
+	 * @param status       Status code, or status held in record.
+	 * @return
+	 */
+	private String getStatus(final long serialNumber, final int status) {
+		if (status >= 0) {
+			return statusCodes[status];
 		}
-		try {
-			return value.substring(0, value.indexOf(','));
-		} catch (Throwable e) {
-			Logger.warn(tag, "Invalid status value (serialNumber={})", serialNumber);
-			return "0";
+		if (status == DeviceTable.statusText) {
+			final DeviceRecord record = devices.get(serialNumber);
+			return (record == null ? "0" : record.getStatus());
 		}
+		return "0";
 	}
 
 	public long getStatusTimestamp(final String serialNumber) {
-		final String value = statuses.get(serialNumber);
-		if (value == null) {
+		final Long key = key(serialNumber);
+		if (key == null) {
 			return 0;
 		}
-		try {
-			return Long.parseLong(value.substring(value.indexOf(',') + 1));
-		} catch (Throwable e) {
-			Logger.warn(tag, "Invalid status timestamp (serialNumber={})", serialNumber);
-			return 0;
+		if (table.getStatus(key) == DeviceTable.statusText) {
+			final DeviceRecord record = devices.get(key);
+			return (record == null ? 0 : record.statusTimestamp);
 		}
+		return table.getStatusTimestamp(key);
+	}
+
+	/**
+	 * Get all reported statuses other than normal (0).
+	 * 
+	 * @return
+	 */
+	public Set<String> getReportedStatuses() {
+		return statusIndex.getStatuses();
+	}
+
+	/**
+	 * Get devices reporting status, in order of status timestamp.
+	 * 
+	 * @param status
+	 * @param since  Inclusive minimum status timestamp, for excluding expired
+	 *               reports.
+	 * @return
+	 */
+	public NavigableSet<StatusIndex.Report> getReports(final String status, final long since) {
+		return statusIndex.get(status, since);
 	}
 
 	public void setPattern(final String serialNumber, final String pattern) {
-		patterns.put(serialNumber, pattern);
+		update(serialNumber, record -> record.withPattern(pattern));
 	}
 
 	public String getPattern(final String serialNumber) {
-		return patterns.get(serialNumber);
+		final DeviceRecord record = getRecord(serialNumber);
+		return (record == null ? null : record.pattern);
 	}
 
 	public void setMessage(final String serialNumber, final String message) {
-		messages.put(serialNumber, message);
+		update(serialNumber, record -> record.withMessage(message));
 	}
 
 	public String getMessage(final String serialNumber) {
-		final String message = messages.get(serialNumber);
-		return message;
+		final DeviceRecord record = getRecord(serialNumber);
+		return (record == null ? null : record.message);
 	}
 
 	/**
@@ -181,6 +830,425 @@ public class Devices {
 	 * @return
 	 */
 	public Set<String> getSerialNumbers() {
-		return registrations.keys();
+		final Set<String> serialNumbers = new LinkedHashSet<>();
+		table.forEach(serialNumber -> serialNumbers.add(Long.toString(serialNumber)));
+		return serialNumbers;
+	}
+
+	/**
+	 * Get compaction metrics of device stores.
+	 * 
+	 * @return Metrics by store name.
+	 */
+	public Map<String, StoreCompactor.Metrics> getStoreMetrics() {
+		return compactor.getMetrics();
+	}
+
+	/**
+	 * Back up device stores to a new archive in the backup folder of the database
+	 * folder.
+	 * 
+	 * @return Archive file.
+	 * @throws IOException
+	 */
+	public File backup() throws IOException {
+		final File backupFolder = new File(folder, "backup");
+		if (!backupFolder.exists() && !backupFolder.mkdirs()) {
+			throw new IOException("Failed to create backup folder (folder=" + backupFolder + ")");
+		}
+		final File file = new File(backupFolder, "devices-" + System.currentTimeMillis() + ".gz");
+		backup(file);
+		return file;
+	}
+
+	/**
+	 * Back up device stores to archive while the server is running. Records are
+	 * streamed from a snapshot, thus the archive is consistent as at the start of
+	 * the backup, and writers are only blocked while the snapshot is opened. The
+	 * archive is written to [file].tmp and renamed on completion.
+	 * 
+	 * @param file Archive file.
+	 * @return Number of devices.
+	 * @throws IOException
+	 */
+	public long backup(final File file) throws IOException {
+		final long start = System.currentTimeMillis();
+		final File temporary = new File(file.getParentFile(), file.getName() + ".tmp");
+		final long records;
+		try (final Snapshot snapshot = snapshot();
+				final DevicesArchive.Writer writer = new DevicesArchive.Writer(temporary)) {
+			// Reserved serial number only increases, thus reading it after opening the
+			// snapshot covers all devices in the snapshot
+			final Map<String, String> values = new HashMap<>();
+			parameters.entries().forEach(e -> values.put(e.getKey(), e.getValue()));
+			writer.writeParameters(values);
+			snapshot.forEachRecord((serialNumber, record) -> {
+				try {
+					writer.writeRecord(serialNumber, record);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			writer.finish();
+			records = writer.getRecords();
+		} catch (UncheckedIOException e) {
+			temporary.delete();
+			throw e.getCause();
+		} catch (IOException e) {
+			temporary.delete();
+			throw e;
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		syncFolder(file.getAbsoluteFile().getParentFile());
+		Logger.info(tag, "Backed up devices (file={},devices={},bytes={},elapsed={}ms)", file, records, file.length(),
+				System.currentTimeMillis() - start);
+		return records;
+	}
+
+	/**
+	 * Make renaming of files in folder durable.
+	 * 
+	 * @param folder
+	 */
+	private final static void syncFolder(final File folder) {
+		try (final FileChannel channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			// Not supported on all platforms
+			Logger.warn(tag, "Failed to sync folder (folder={})", folder, e);
+		}
+	}
+
+	/**
+	 * Restore device stores from archive into a database folder without device
+	 * stores, before the server is started. Records are written in large batches,
+	 * one commit per batch, rather than one commit per device. Stores are restored
+	 * under temporary names and renamed once the whole archive is read, thus a
+	 * malformed or incomplete archive leaves no device stores behind. The device
+	 * table, status index and day codes are rebuilt when the stores are opened,
+	 * thus existing day codes cache and device table files are deleted.
+	 * 
+	 * @param file       Archive file.
+	 * @param folder     Database folder.
+	 * @param parameters Server parameters, see storage engine parameter.
+	 * @return Number of devices.
+	 * @throws IOException for malformed archive, or if the folder contains device
+	 *                     stores.
+	 */
+	public final static long restore(final File file, final File folder, final Parameters parameters)
+			throws IOException {
+		final long start = System.currentTimeMillis();
+		// Legacy stores would be migrated into the restored records on start
+		final List<String> stores = new ArrayList<>(Arrays.asList(legacyStores));
+		stores.addAll(Arrays.asList("records", "parameters", legacyRecordStore));
+		final File[] existing = folder.listFiles((dir, name) -> !name.endsWith(".migrated")
+				&& stores.stream().anyMatch(store -> name.equals(store) || name.startsWith(store + ".")));
+		if (existing != null && existing.length > 0) {
+			throw new IOException("Database folder contains device stores (folder=" + folder + ")");
+		}
+		if (!folder.exists() && !folder.mkdirs()) {
+			throw new IOException("Failed to create database folder (folder=" + folder + ")");
+		}
+		// Data derived from records of another database must be rebuilt
+		final File[] derived = folder.listFiles((dir, name) -> name.startsWith("dayCodes")
+				|| name.startsWith("deviceTable"));
+		for (final File derivedFile : derived) {
+			if (!derivedFile.delete()) {
+				throw new IOException("Failed to delete derived data (file=" + derivedFile + ")");
+			}
+			Logger.info(tag, "Deleted derived data before restore (file={})", derivedFile);
+		}
+		// Stores of an interrupted restore
+		deleteRestoring(folder);
+		final String storageEngine = parameters.getStorageEngine();
+		final KeyValueStore<String, String> parameterStore = KeyValueStore.open(storageEngine,
+				new File(folder, restoring + "parameters"), Serializer.STRING, Serializer.STRING, 0, 1);
+		final KeyValueStore<Long, DeviceRecord> recordStore = KeyValueStore.open(storageEngine,
+				new File(folder, restoring + "records"), Serializer.LONG, DeviceRecordSerializer.instance, 0, 1);
+		final long records;
+		try {
+			final Map<String, String> values = new HashMap<>();
+			final Map<Long, DeviceRecord> batch = new HashMap<>();
+			records = DevicesArchive.read(file, (key, value) -> values.put(key, value),
+					(serialNumber, record) -> {
+						batch.put(serialNumber, record);
+						if (batch.size() >= restoreBatch) {
+							recordStore.putAll(batch).join();
+							batch.clear();
+						}
+					});
+			recordStore.putAll(batch).join();
+			parameterStore.putAll(values).join();
+		} catch (Throwable e) {
+			parameterStore.close();
+			recordStore.close();
+			deleteRestoring(folder);
+			throw e;
+		}
+		parameterStore.close();
+		recordStore.close();
+		// Records first, as the reserved serial number is recovered from records
+		renameRestored(folder, "records");
+		renameRestored(folder, "parameters");
+		syncFolder(folder);
+		Logger.info(tag, "Restored devices (file={},devices={},elapsed={}ms)", file, records,
+				System.currentTimeMillis() - start);
+		return records;
+	}
+
+	/**
+	 * Delete files of stores being restored.
+	 * 
+	 * @param folder
+	 * @throws IOException
+	 */
+	private final static void deleteRestoring(final File folder) throws IOException {
+		for (final File restoringFile : folder.listFiles((dir, name) -> name.startsWith(restoring))) {
+			if (!restoringFile.delete()) {
+				throw new IOException("Failed to delete restore file (file=" + restoringFile + ")");
+			}
+		}
+	}
+
+	/**
+	 * Rename files of restored store to store name.
+	 * 
+	 * @param folder
+	 * @param name   Store name.
+	 * @throws IOException
+	 */
+	private final static void renameRestored(final File folder, final String name) throws IOException {
+		for (final File restored : folder.listFiles((dir, fileName) -> fileName.equals(restoring + name)
+				|| fileName.startsWith(restoring + name + "."))) {
+			Files.move(restored.toPath(), new File(folder, restored.getName().substring(restoring.length())).toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Open snapshot of all devices. Waits for writes in progress to complete.
+	 * 
+	 * @return Snapshot, to be closed after use.
+	 */
+	public Snapshot snapshot() {
+		snapshotLock.writeLock().lock();
+		try {
+			final Snapshot snapshot = new Snapshot();
+			snapshots.add(snapshot);
+			return snapshot;
+		} finally {
+			snapshotLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Consistent view of all devices as at the time the snapshot was opened.
+	 * While a snapshot is open, writers preserve the record of each device before
+	 * its first change, thus reads see the state at opening without blocking or
+	 * being blocked by writers, and the cost is proportional to the number of
+	 * devices changed while the snapshot is open. Reads fetch the live state
+	 * before checking for a preserved record, as writers preserve before changing
+	 * the live state.
+	 */
+	public class Snapshot implements AutoCloseable {
+		// Preserved records by serial number
+		private final Map<Long, DeviceRecord> records = new ConcurrentHashMap<>();
+
+		private Snapshot() {
+		}
+
+		/**
+		 * Get preserved record.
+		 * 
+		 * @param serialNumber
+		 * @return Record, unregistered, or null if the device is unchanged.
+		 */
+		private DeviceRecord preserved(final long serialNumber) {
+			return (records.isEmpty() ? null : records.get(serialNumber));
+		}
+
+		public DeviceRecord getRecord(final String serialNumber) {
+			final Long key = key(serialNumber);
+			if (key == null) {
+				return null;
+			}
+			final DeviceRecord record = devices.get(key);
+			final DeviceRecord preserved = preserved(key);
+			if (preserved == null) {
+				return record;
+			}
+			return (preserved == unregistered ? null : preserved);
+		}
+
+		public String getStatus(final String serialNumber) {
+			final Long key = key(serialNumber);
+			if (key == null) {
+				return "0";
+			}
+			final int status = table.getStatus(key);
+			final DeviceRecord preserved = preserved(key);
+			if (preserved == null) {
+				return Devices.this.getStatus(key, status);
+			}
+			return (preserved == unregistered ? "0" : preserved.getStatus());
+		}
+
+		public String getPattern(final String serialNumber) {
+			final DeviceRecord record = getRecord(serialNumber);
+			return (record == null ? null : record.pattern);
+		}
+
+		public String getMessage(final String serialNumber) {
+			final DeviceRecord record = getRecord(serialNumber);
+			return (record == null ? null : record.message);
+		}
+
+		/**
+		 * Visit record of every device registered at opening, in no particular order.
+		 * Records are read from the store while writers continue, thus each device is
+		 * visited once regardless of changes since opening.
+		 * 
+		 * @param consumer Consumer of serial number and record.
+		 */
+		public void forEachRecord(final BiConsumer<Long, DeviceRecord> consumer) {
+			// Serial numbers visited in the store, for skipping their preserved records,
+			// read while the store may be compacted
+			final long[] visited = devices.read(entries -> {
+				long[] serialNumbers = new long[1024];
+				int count = 0;
+				for (final Map.Entry<Long, DeviceRecord> e : entries) {
+					final long serialNumber = e.getKey();
+					final DeviceRecord preserved = preserved(serialNumber);
+					if (preserved == unregistered) {
+						continue;
+					}
+					consumer.accept(serialNumber, (preserved == null ? e.getValue() : preserved));
+					if (count == serialNumbers.length) {
+						serialNumbers = Arrays.copyOf(serialNumbers, count * 2);
+					}
+					serialNumbers[count++] = serialNumber;
+				}
+				return Arrays.copyOf(serialNumbers, count);
+			});
+			// Devices preserved after being visited were visited with the preserved
+			// record, as writers preserve before changing the store
+			Arrays.sort(visited);
+			for (final Map.Entry<Long, DeviceRecord> e : records.entrySet()) {
+				if (e.getValue() != unregistered && Arrays.binarySearch(visited, e.getKey()) < 0) {
+					consumer.accept(e.getKey(), e.getValue());
+				}
+			}
+		}
+
+		/**
+		 * Get all registered devices in serial number order.
+		 * 
+		 * @return
+		 */
+		public Set<String> getSerialNumbers() {
+			final Set<String> serialNumbers = new LinkedHashSet<>();
+			// Slots of devices unregistered since opening remain in the table
+			table.forEachSlot((serialNumber, status) -> {
+				final DeviceRecord preserved = preserved(serialNumber);
+				if (preserved == null ? status != DeviceTable.unregistered : preserved != unregistered) {
+					serialNumbers.add(Long.toString(serialNumber));
+				}
+			});
+			return serialNumbers;
+		}
+
+		/**
+		 * Count registered devices by status, devices that have never reported are
+		 * counted as normal (0).
+		 * 
+		 * @return Count by status, for statuses with at least one device.
+		 */
+		public Map<String, Long> getStatusCounts() {
+			final Map<String, Long> counts = new HashMap<>();
+			final long[] statusCounts = new long[statusCodes.length];
+			table.forEachSlot((serialNumber, status) -> {
+				final DeviceRecord preserved = preserved(serialNumber);
+				if (preserved != null) {
+					if (preserved != unregistered) {
+						counts.merge(preserved.getStatus(), 1l, Long::sum);
+					}
+				} else if (status >= 0) {
+					statusCounts[status]++;
+				} else if (status == DeviceTable.notReported) {
+					statusCounts[0]++;
+				} else if (status == DeviceTable.statusText) {
+					counts.merge(Devices.this.getStatus(serialNumber, status), 1l, Long::sum);
+				}
+			});
+			for (int status = 0; status < statusCounts.length; status++) {
+				if (statusCounts[status] > 0) {
+					counts.merge(statusCodes[status], statusCounts[status], Long::sum);
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * Get all reported statuses other than normal (0).
+		 * 
+		 * @return
+		 */
+		public Set<String> getReportedStatuses() {
+			final Set<String> statuses = new HashSet<>(statusIndex.getStatuses());
+			records.values().forEach(record -> {
+				if (record.status != null && !record.status.equals("0")) {
+					statuses.add(record.status);
+				}
+			});
+			return statuses;
+		}
+
+		/**
+		 * Get devices reporting status, in order of status timestamp.
+		 * 
+		 * @param status
+		 * @param since  Inclusive minimum status timestamp, for excluding expired
+		 *               reports.
+		 * @return
+		 */
+		public NavigableSet<StatusIndex.Report> getReports(final String status, final long since) {
+			final NavigableSet<StatusIndex.Report> reports = new TreeSet<>();
+			for (final StatusIndex.Report report : statusIndex.get(status, since)) {
+				final Long key = key(report.serialNumber);
+				if (key != null && preserved(key) == null) {
+					reports.add(report);
+				}
+			}
+			records.forEach((serialNumber, record) -> {
+				if (status.equals(record.status) && record.statusTimestamp >= since) {
+					reports.add(new StatusIndex.Report(serialNumber.toString(), status, record.statusTimestamp));
+				}
+			});
+			return reports;
+		}
+
+		/**
+		 * Get day codes, including devices unregistered since opening.
+		 * 
+		 * @param serialNumber
+		 * @return
+		 */
+		public DayCodes getCodes(final String serialNumber) {
+			final Long key = key(serialNumber);
+			final DeviceRecord preserved = (key == null ? null : preserved(key));
+			if (preserved != null && preserved != unregistered && !table.isRegistered(key)) {
+				return new DayCodes(preserved.sharedSecret, dayCodesInterval);
+			}
+			return Devices.this.getCodes(serialNumber);
+		}
+
+		/**
+		 * Close snapshot, writers stop preserving records for it.
+		 */
+		@Override
+		public void close() {
+			snapshots.remove(this);
+		}
 	}
 }
@@ -0,0 +1,153 @@
+package org.c19x.server.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+/**
+ * Compressed archive of the device stores for backup and restore. Records are
+ * written as they are read, thus a backup streams from a snapshot without
+ * holding all records in memory. Derived data, i.e. the device table, status
+ * index and day codes, is not archived as it is rebuilt from the records.
+ *
+ * <pre>
+ * magic            int, 0x43313958 (C19X)
+ * version          int, 1
+ * parameters       int count, UTF key and UTF value per parameter
+ * records          byte 1, long serialNumber, int length, DeviceRecordSerializer bytes, per record
+ * end              byte 0, long record count
+ * </pre>
+ *
+ * The whole archive is GZIP compressed.
+ *
+ * @author user
+ *
+ */
+public class DevicesArchive {
+	private final static int magic = 0x43313958;
+	private final static int version = 1;
+	private final static int recordMarker = 1;
+	private final static int endMarker = 0;
+
+	/**
+	 * Archive writer. Parameters must be written before records.
+	 */
+	public final static class Writer implements Closeable {
+		private final FileOutputStream fileOutputStream;
+		private final GZIPOutputStream gzipOutputStream;
+		private final DataOutputStream out;
+		private final DataOutput2 buffer = new DataOutput2();
+		private long records = 0;
+
+		public Writer(final File file) throws IOException {
+			this.fileOutputStream = new FileOutputStream(file);
+			this.gzipOutputStream = new GZIPOutputStream(fileOutputStream, 65536);
+			this.out = new DataOutputStream(new BufferedOutputStream(gzipOutputStream, 65536));
+			out.writeInt(magic);
+			out.writeInt(version);
+		}
+
+		public void writeParameters(final Map<String, String> parameters) throws IOException {
+			out.writeInt(parameters.size());
+			for (final Map.Entry<String, String> e : parameters.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeUTF(e.getValue());
+			}
+		}
+
+		public void writeRecord(final long serialNumber, final DeviceRecord record) throws IOException {
+			buffer.pos = 0;
+			DeviceRecordSerializer.instance.serialize(buffer, record);
+			out.writeByte(recordMarker);
+			out.writeLong(serialNumber);
+			out.writeInt(buffer.pos);
+			out.write(buffer.buf, 0, buffer.pos);
+			records++;
+		}
+
+		/**
+		 * Write end of archive and sync archive to storage, an archive without end
+		 * is incomplete.
+		 *
+		 * @throws IOException
+		 */
+		public void finish() throws IOException {
+			out.writeByte(endMarker);
+			out.writeLong(records);
+			out.flush();
+			gzipOutputStream.finish();
+			fileOutputStream.getChannel().force(true);
+		}
+
+		public long getRecords() {
+			return records;
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+
+	/**
+	 * Read archive.
+	 *
+	 * @param file
+	 * @param parameters Consumer of all parameters, called before any records.
+	 * @param records    Consumer of each record by serial number.
+	 * @return Number of records.
+	 * @throws IOException for malformed or incomplete archive.
+	 */
+	public final static long read(final File file, final BiConsumer<String, String> parameters,
+			final BiConsumer<Long, DeviceRecord> records) throws IOException {
+		try (final DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 65536), 65536))) {
+			if (in.readInt() != magic) {
+				throw new IOException("Not a devices archive (file=" + file + ")");
+			}
+			final int archiveVersion = in.readInt();
+			if (archiveVersion != version) {
+				throw new IOException("Unsupported devices archive version (version=" + archiveVersion + ")");
+			}
+			final int parameterCount = in.readInt();
+			for (int i = 0; i < parameterCount; i++) {
+				parameters.accept(in.readUTF(), in.readUTF());
+			}
+			long count = 0;
+			byte[] bytes = new byte[256];
+			while (in.readByte() == recordMarker) {
+				final long serialNumber = in.readLong();
+				final int length = in.readInt();
+				if (length > bytes.length) {
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				}
+				in.readFully(bytes, 0, length);
+				records.accept(serialNumber,
+						DeviceRecordSerializer.instance.deserialize(new DataInput2.ByteArray(bytes), length));
+				count++;
+			}
+			final long expected = in.readLong();
+			if (expected != count) {
+				throw new IOException("Devices archive record count mismatch (expected=" + expected + ",actual="
+						+ count + ")");
+			}
+			return count;
+		} catch (EOFException e) {
+			throw new IOException("Incomplete devices archive (file=" + file + ")", e);
+		}
+	}
+}
@@ -1,55 +1,234 @@
 package org.c19x.server.data;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 
 import org.c19x.util.Logger;
-import org.json.simple.JSONObject;
 
 public class InfectionData {
 	private final static String tag = InfectionData.class.getName();
-	private final String json;
+	private final byte[] json;
+	private final byte[] binary;
+	private final SortedMap<Integer, Map<String, long[]>> days;
 
 	public InfectionData(final Devices devices, final Parameters parameters) {
-		final JSONObject jsonObject = get(devices, parameters);
-		this.json = jsonObject.toJSONString();
+		final Map<String, LongStream.Builder> seeds = new HashMap<>();
+		final Map<Integer, Map<String, LongStream.Builder>> daySeeds = new HashMap<>();
+		final InfectionDataWriter writer = new InfectionDataWriter();
+		try (final Devices.Snapshot snapshot = devices.snapshot()) {
+			get(snapshot, parameters, writer, seeds, daySeeds);
+		}
+		this.json = writer.toByteArray();
+		this.binary = BinaryInfectionData.encode(build(seeds));
+		this.days = new TreeMap<>();
+		daySeeds.forEach((day, statusSeeds) -> days.put(day, build(statusSeeds)));
+	}
+
+	/**
+	 * Infection data from its representations, e.g. as restored from a snapshot.
+	 * 
+	 * @param json   UTF-8 encoded JSON.
+	 * @param binary See BinaryInfectionData.
+	 * @param days   Beacon code seeds by status, by day index.
+	 */
+	protected InfectionData(final byte[] json, final byte[] binary, final SortedMap<Integer, Map<String, long[]>> days) {
+		this.json = json;
+		this.binary = binary;
+		this.days = days;
+	}
+
+	private final static Map<String, long[]> build(final Map<String, LongStream.Builder> seeds) {
+		return seeds.entrySet().stream().collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue().build().toArray()));
 	}
 
 	public String toJSON() {
+		return new String(json, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Get infection data in JSON format.
+	 * 
+	 * @return UTF-8 encoded JSON.
+	 */
+	public byte[] toJSONBytes() {
 		return json;
 	}
 
-	@SuppressWarnings("unchecked")
-	private final static JSONObject get(final Devices devices, final Parameters parameters) {
-		final JSONObject j = new JSONObject();
+	/**
+	 * Get infection data in binary format.
+	 * 
+	 * @return See BinaryInfectionData.
+	 */
+	public byte[] toBinary() {
+		return binary;
+	}
+
+	/**
+	 * Get infection data partitioned by the day each beacon code seed belongs to.
+	 * 
+	 * @return Beacon code seeds by status, by day index (see DayCodes.today()).
+	 */
+	public SortedMap<Integer, Map<String, long[]>> getDays() {
+		return days;
+	}
+
+	/**
+	 * Get infection data in JSON format from beacon code seeds by status, e.g. for
+	 * deltas.
+	 * 
+	 * @param seeds
+	 * @return UTF-8 encoded JSON.
+	 */
+	public final static byte[] toJSON(final Map<String, long[]> seeds) {
+		final InfectionDataWriter writer = new InfectionDataWriter();
+		seeds.forEach((status, values) -> writer.write(status, values));
+		return writer.toByteArray();
+	}
+
+	/**
+	 * Get infection data from status reports. Only devices with a current report
+	 * are visited, and expired symptomatic and confirmed diagnosis reports are
+	 * excluded by status timestamp. Beacon code seeds are derived in parallel if
+	 * enabled, and written in report order.
+	 * 
+	 * @param devices
+	 * @param parameters
+	 * @param writer     Receives released beacon code seeds in JSON format.
+	 * @param seeds      Collects released beacon code seeds by status.
+	 * @param daySeeds   Collects released beacon code seeds by status by day.
+	 */
+	private final static void get(final Devices.Snapshot devices, final Parameters parameters,
+			final InfectionDataWriter writer, final Map<String, LongStream.Builder> seeds,
+			final Map<Integer, Map<String, LongStream.Builder>> daySeeds) {
+		final long start = System.nanoTime();
 		final int days = parameters.getRetention();
-		final long expireSymptomatic = parameters.getExpireSymptomatic() * 24 * 60 * 60 * 1000;
-		final long expireConfirmedDiagnosis = parameters.getExpireConfirmedDiagnosis() * 24 * 60 * 60 * 1000;
-		final long now = System.currentTimeMillis();
-		devices.getSerialNumbers().forEach(serialNumber -> {
+		final int to = DayCodes.today() + 1;
+		final int from = to - days;
+		final List<StatusIndex.Report> reports = getReports(devices, parameters);
+		final int parallelism = parameters.getInfectionDataParallelism();
+		final long[][] beaconCodeSeeds = new long[reports.size()][];
+		if (parallelism > 1 && reports.size() > Release.threshold) {
+			final ForkJoinPool forkJoinPool = new ForkJoinPool(parallelism);
 			try {
-				final String status = devices.getStatus(serialNumber);
-				if (status != null && !status.equals("0")) {
-					final long statusTimestamp = devices.getStatusTimestamp(serialNumber);
-					// Check report expiry
-					if (status.equals("1") && (now - statusTimestamp) > expireSymptomatic) {
-						return;
-					}
-					if (status.equals("2") && (now - statusTimestamp) > expireConfirmedDiagnosis) {
-						return;
-					}
+				forkJoinPool.invoke(new Release(devices, reports, from, to, beaconCodeSeeds, 0, reports.size()));
+			} finally {
+				forkJoinPool.shutdown();
+			}
+		} else {
+			new Release(devices, reports, from, to, beaconCodeSeeds, 0, reports.size()).compute();
+		}
+		// Merge in report order for deterministic output
+		long count = 0;
+		for (int r = 0; r < beaconCodeSeeds.length; r++) {
+			if (beaconCodeSeeds[r] == null) {
+				continue;
+			}
+			final String status = reports.get(r).status;
+			final LongStream.Builder statusSeeds = seeds.computeIfAbsent(status, s -> LongStream.builder());
+			writer.write(status, beaconCodeSeeds[r]);
+			for (int i = 0; i < beaconCodeSeeds[r].length; i++) {
+				statusSeeds.add(beaconCodeSeeds[r][i]);
+				daySeeds.computeIfAbsent(from + i, d -> new HashMap<>())
+						.computeIfAbsent(status, s -> LongStream.builder()).add(beaconCodeSeeds[r][i]);
+			}
+			count += beaconCodeSeeds[r].length;
+		}
+		final double elapsed = (System.nanoTime() - start) / 1000000000d;
+		Logger.info(tag, "Built (devices={},seeds={},parallelism={},elapsed={}s,devicesPerSecond={})", reports.size(),
+				count, parallelism, String.format("%.3f", elapsed),
+				(elapsed > 0 ? Math.round(reports.size() / elapsed) : reports.size()));
+	}
+
+	/**
+	 * Get current, unexpired reports.
+	 * 
+	 * @param devices
+	 * @param parameters
+	 * @return
+	 */
+	private final static List<StatusIndex.Report> getReports(final Devices.Snapshot devices,
+			final Parameters parameters) {
+		final long now = System.currentTimeMillis();
+		final List<StatusIndex.Report> reports = new ArrayList<>();
+		for (final String status : devices.getReportedStatuses()) {
+			reports.addAll(devices.getReports(status, since(status, parameters, now)));
+		}
+		return reports;
+	}
+
+	/**
+	 * Get report expiry of status.
+	 * 
+	 * @param status
+	 * @param parameters
+	 * @param now
+	 * @return Inclusive minimum status timestamp of unexpired reports.
+	 */
+	protected final static long since(final String status, final Parameters parameters, final long now) {
+		if (status.equals("1")) {
+			return now - parameters.getExpireSymptomatic() * 24 * 60 * 60 * 1000l;
+		} else if (status.equals("2")) {
+			return now - parameters.getExpireConfirmedDiagnosis() * 24 * 60 * 60 * 1000l;
+		} else {
+			return Long.MIN_VALUE;
+		}
+	}
+
+	/**
+	 * Derive beacon code seeds for a range of reports, splitting the range across
+	 * the fork join pool.
+	 */
+	private final static class Release extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		// Maximum number of reports processed by one task without splitting
+		private final static int threshold = 64;
+		private final Devices.Snapshot devices;
+		private final List<StatusIndex.Report> reports;
+		private final int from, to;
+		private final long[][] beaconCodeSeeds;
+		private final int start, end;
+
+		private Release(final Devices.Snapshot devices, final List<StatusIndex.Report> reports, final int from,
+				final int to, final long[][] beaconCodeSeeds, final int start, final int end) {
+			this.devices = devices;
+			this.reports = reports;
+			this.from = from;
+			this.to = to;
+			this.beaconCodeSeeds = beaconCodeSeeds;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start > threshold && getPool() != null) {
+				final int middle = (start + end) >>> 1;
+				invokeAll(new Release(devices, reports, from, to, beaconCodeSeeds, start, middle),
+						new Release(devices, reports, from, to, beaconCodeSeeds, middle, end));
+				return;
+			}
+			for (int r = start; r < end; r++) {
+				final StatusIndex.Report report = reports.get(r);
+				try {
 					// Release beacon code seeds
-					final DayCodes dayCodes = devices.getCodes(serialNumber);
-					final long[] beaconCodeSeeds = dayCodes.getBeaconCodeSeeds(days);
-					Logger.debug(tag, "Infectious (serialNumber={},status={},beaconCodeSeeds={})", serialNumber, status,
-							Arrays.toString(beaconCodeSeeds));
-					for (final long beaconCodeSeed : beaconCodeSeeds) {
-						j.put(Long.toString(beaconCodeSeed), status);
-					}
+					final DayCodes dayCodes = devices.getCodes(report.serialNumber);
+					beaconCodeSeeds[r] = dayCodes.getBeaconCodeSeeds(from, to);
+					Logger.debug(tag, "Infectious (serialNumber={},status={},beaconCodeSeeds={})",
+							report.serialNumber, report.status, Arrays.toString(beaconCodeSeeds[r]));
+				} catch (Throwable e) {
+					Logger.warn(tag, "Failed to set infection data (serialNumber={})", report.serialNumber, e);
 				}
-			} catch (Throwable e) {
-				Logger.warn(tag, "Failed to set infection data (serialNumber={})", serialNumber, e);
 			}
-		});
-		return j;
+		}
 	}
 }
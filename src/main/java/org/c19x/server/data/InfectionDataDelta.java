@@ -0,0 +1,85 @@
+package org.c19x.server.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+/**
+ * Difference between two versions of infection data. A delta has the same form
+ * as infection data, i.e. beacon code seeds by status, where added seeds and
+ * seeds with a changed status are listed under their new status, and removed
+ * (expired) seeds are listed under the normal status (0).
+ *
+ * @author user
+ *
+ */
+public class InfectionDataDelta {
+	public final static String removed = "0";
+
+	/**
+	 * Get difference between infection data versions.
+	 *
+	 * @param from Beacon code seeds by status, in ascending order per status.
+	 * @param to   Beacon code seeds by status, in ascending order per status.
+	 * @return Changes to apply to from to obtain to.
+	 */
+	public final static Map<String, long[]> diff(final Map<String, long[]> from, final Map<String, long[]> to) {
+		final Map<String, long[]> delta = new HashMap<>();
+		final Set<String> statuses = new HashSet<>(from.keySet());
+		statuses.addAll(to.keySet());
+		final LongStream.Builder removedSeeds = LongStream.builder();
+		for (final String status : statuses) {
+			final long[] fromSeeds = from.getOrDefault(status, new long[0]);
+			final long[] toSeeds = to.getOrDefault(status, new long[0]);
+			final long[] addedSeeds = difference(toSeeds, fromSeeds);
+			if (addedSeeds.length > 0) {
+				delta.put(status, addedSeeds);
+			}
+			// Seeds no longer under this status are removed, unless now under another
+			for (final long seed : difference(fromSeeds, toSeeds)) {
+				if (!contains(to, seed)) {
+					removedSeeds.add(seed);
+				}
+			}
+		}
+		final long[] removedArray = removedSeeds.build().toArray();
+		if (removedArray.length > 0) {
+			Arrays.sort(removedArray);
+			delta.put(removed, removedArray);
+		}
+		return delta;
+	}
+
+	/**
+	 * Get values in a but not in b.
+	 *
+	 * @param a Sorted values.
+	 * @param b Sorted values.
+	 * @return Sorted values.
+	 */
+	private final static long[] difference(final long[] a, final long[] b) {
+		final LongStream.Builder result = LongStream.builder();
+		int j = 0;
+		for (int i = 0; i < a.length; i++) {
+			while (j < b.length && b[j] < a[i]) {
+				j++;
+			}
+			if (j == b.length || b[j] != a[i]) {
+				result.add(a[i]);
+			}
+		}
+		return result.build().toArray();
+	}
+
+	private final static boolean contains(final Map<String, long[]> seeds, final long seed) {
+		for (final long[] values : seeds.values()) {
+			if (Arrays.binarySearch(values, seed) >= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,146 @@
+package org.c19x.server.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Durable copy of published infection data, so a restarted server can serve the
+ * last published version immediately rather than an empty table until the
+ * first rebuild completes. The snapshot is written to a temporary file and
+ * renamed over the previous snapshot, thus a crash leaves either the old or the
+ * new snapshot, and a checksum guards against partial or corrupt files.
+ *
+ * <pre>
+ * magic        int
+ * format       int, currently 1
+ * version      long, published version of infection data
+ * jsonLength   int
+ * json         UTF-8 encoded JSON
+ * binaryLength int
+ * binary       see BinaryInfectionData
+ * dayCount     int
+ * per day, in ascending order
+ *   day        int
+ *   length     int
+ *   seeds      see BinaryInfectionData
+ * checksum     long, CRC32 of all preceding bytes
+ * </pre>
+ *
+ * @author user
+ *
+ */
+public class InfectionDataSnapshot {
+	private final static int magic = 0x43313944; // C19D
+	private final static int format = 1;
+	private final long version;
+	private final InfectionData infectionData;
+
+	public InfectionDataSnapshot(final long version, final InfectionData infectionData) {
+		this.version = version;
+		this.infectionData = infectionData;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public InfectionData getInfectionData() {
+		return infectionData;
+	}
+
+	/**
+	 * Write snapshot atomically, replacing any existing snapshot.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(final File file) throws IOException {
+		final byte[] json = infectionData.toJSONBytes();
+		final byte[] binary = infectionData.toBinary();
+		final SortedMap<Integer, byte[]> days = new TreeMap<>();
+		int length = 4 + 4 + 8 + 4 + json.length + 4 + binary.length + 4 + 8;
+		for (final Map.Entry<Integer, Map<String, long[]>> entry : infectionData.getDays().entrySet()) {
+			final byte[] seeds = BinaryInfectionData.encode(entry.getValue());
+			days.put(entry.getKey(), seeds);
+			length += 4 + 4 + seeds.length;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.putInt(magic);
+		buffer.putInt(format);
+		buffer.putLong(version);
+		buffer.putInt(json.length);
+		buffer.put(json);
+		buffer.putInt(binary.length);
+		buffer.put(binary);
+		buffer.putInt(days.size());
+		days.forEach((day, seeds) -> {
+			buffer.putInt(day);
+			buffer.putInt(seeds.length);
+			buffer.put(seeds);
+		});
+		buffer.putLong(checksum(buffer.array(), buffer.position()));
+
+		final File temporaryFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (final FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile)) {
+			fileOutputStream.write(buffer.array());
+			fileOutputStream.getFD().sync();
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Read snapshot.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException for unsupported format, corrupt or incomplete file.
+	 */
+	public final static InfectionDataSnapshot read(final File file) throws IOException {
+		final byte[] data = Files.readAllBytes(file.toPath());
+		if (data.length < 8 + 8 || ByteBuffer.wrap(data, data.length - 8, 8).getLong() != checksum(data,
+				data.length - 8)) {
+			throw new IOException("Checksum mismatch (file=" + file + ")");
+		}
+		final ByteBuffer buffer = ByteBuffer.wrap(data, 0, data.length - 8);
+		try {
+			if (buffer.getInt() != magic) {
+				throw new IOException("Not a snapshot (file=" + file + ")");
+			}
+			final int dataFormat = buffer.getInt();
+			if (dataFormat != format) {
+				throw new IOException("Unsupported format (file=" + file + ",format=" + dataFormat + ")");
+			}
+			final long version = buffer.getLong();
+			final byte[] json = new byte[buffer.getInt()];
+			buffer.get(json);
+			final byte[] binary = new byte[buffer.getInt()];
+			buffer.get(binary);
+			final int dayCount = buffer.getInt();
+			final SortedMap<Integer, Map<String, long[]>> days = new TreeMap<>();
+			for (int i = 0; i < dayCount; i++) {
+				final int day = buffer.getInt();
+				final byte[] seeds = new byte[buffer.getInt()];
+				buffer.get(seeds);
+				days.put(day, BinaryInfectionData.decode(seeds));
+			}
+			return new InfectionDataSnapshot(version, new InfectionData(json, binary, days));
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed snapshot (file=" + file + ")", e);
+		}
+	}
+
+	private final static long checksum(final byte[] data, final int length) {
+		final CRC32 crc32 = new CRC32();
+		crc32.update(data, 0, length);
+		return crc32.getValue();
+	}
+}
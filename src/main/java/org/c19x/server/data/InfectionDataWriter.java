@@ -0,0 +1,118 @@
+package org.c19x.server.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.simple.JSONValue;
+
+/**
+ * Streaming writer of infection data in JSON format, i.e. an object mapping
+ * beacon code seed (decimal string) to status (string). Entries are encoded
+ * straight into a growable UTF-8 buffer as they are added, with the same key
+ * and value encoding as JSONObject.toJSONString(), thus no intermediate map or
+ * string of the whole table is created. Entries appear in the order they are
+ * added.
+ *
+ * @author user
+ *
+ */
+public class InfectionDataWriter {
+	private final Buffer buffer;
+	private final byte[] digits = new byte[20];
+	private int count = 0;
+	private String status = null;
+	private byte[] statusValue = null;
+	private boolean closed = false;
+
+	/**
+	 * Buffer with access to content without copying when full.
+	 */
+	private final static class Buffer extends ByteArrayOutputStream {
+		private Buffer(final int size) {
+			super(size);
+		}
+
+		private byte[] array() {
+			return (count == buf.length ? buf : Arrays.copyOf(buf, count));
+		}
+	}
+
+	public InfectionDataWriter() {
+		this(1024);
+	}
+
+	/**
+	 * Create writer.
+	 *
+	 * @param size Initial buffer size in bytes.
+	 */
+	public InfectionDataWriter(final int size) {
+		buffer = new Buffer(size);
+		buffer.write('{');
+	}
+
+	/**
+	 * Add beacon code seeds for status.
+	 *
+	 * @param status
+	 * @param beaconCodeSeeds
+	 */
+	public void write(final String status, final long[] beaconCodeSeeds) {
+		assert (!closed);
+		if (!status.equals(this.status)) {
+			this.status = status;
+			this.statusValue = ("\"" + JSONValue.escape(status) + "\"").getBytes(StandardCharsets.UTF_8);
+		}
+		for (final long beaconCodeSeed : beaconCodeSeeds) {
+			if (count++ > 0) {
+				buffer.write(',');
+			}
+			buffer.write('"');
+			writeLong(beaconCodeSeed);
+			buffer.write('"');
+			buffer.write(':');
+			buffer.write(statusValue, 0, statusValue.length);
+		}
+	}
+
+	private void writeLong(final long value) {
+		if (value == Long.MIN_VALUE) {
+			final byte[] text = Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+			buffer.write(text, 0, text.length);
+			return;
+		}
+		long remainder = Math.abs(value);
+		int position = digits.length;
+		do {
+			digits[--position] = (byte) ('0' + (remainder % 10));
+			remainder /= 10;
+		} while (remainder != 0);
+		if (value < 0) {
+			digits[--position] = '-';
+		}
+		buffer.write(digits, position, digits.length - position);
+	}
+
+	/**
+	 * Number of entries written.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Complete JSON object and get content.
+	 *
+	 * @return UTF-8 encoded JSON.
+	 */
+	public byte[] toByteArray() {
+		if (!closed) {
+			buffer.write('}');
+			closed = true;
+		}
+		return buffer.array();
+	}
+}
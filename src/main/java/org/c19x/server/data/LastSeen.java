@@ -0,0 +1,162 @@
+package org.c19x.server.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory record of the day each device was last seen, for deleting inactive
+ * devices. Days are held in the last seen field of the device table, and a
+ * device is marked for flushing to persistent storage at most once per day,
+ * thus recording activity is a memory operation and persistence is batched.
+ * An expiry index orders devices by day last seen, thus finding inactive
+ * devices only visits the inactive devices.
+ *
+ * @author user
+ *
+ */
+public class LastSeen {
+	private final static long dayMillis = 24 * 60 * 60 * 1000;
+	private final static int serialNumberBits = 40;
+	// Day + 1 by serial number, 0 = never seen
+	private final DeviceTable table;
+	private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+	// Expiry index entries (day << serialNumberBits | serialNumber), stale entries
+	// are possible under concurrent updates and are verified against the table
+	private final NavigableSet<Long> expiry = new ConcurrentSkipListSet<>();
+
+	public LastSeen() {
+		this(new DeviceTable());
+	}
+
+	public LastSeen(final DeviceTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Get day of timestamp.
+	 *
+	 * @param timestamp
+	 * @return Days since epoch.
+	 */
+	public final static int day(final long timestamp) {
+		return (int) (timestamp / dayMillis);
+	}
+
+	/**
+	 * Get start of day.
+	 *
+	 * @param day Days since epoch.
+	 * @return Timestamp.
+	 */
+	public final static long timestamp(final int day) {
+		return day * dayMillis;
+	}
+
+	/**
+	 * Record activity, marking the device for flushing if the day has changed.
+	 *
+	 * @param serialNumber
+	 * @param timestamp
+	 */
+	public void touch(final long serialNumber, final long timestamp) {
+		if (set(serialNumber, day(timestamp))) {
+			dirty.add(serialNumber);
+		}
+	}
+
+	/**
+	 * Load persisted last seen time without marking the device for flushing.
+	 *
+	 * @param serialNumber
+	 * @param timestamp
+	 */
+	public void load(final long serialNumber, final long timestamp) {
+		set(serialNumber, day(timestamp));
+	}
+
+	private boolean set(final long serialNumber, final int day) {
+		final int value = day + 1;
+		int previous;
+		do {
+			previous = table.getLastSeen(serialNumber);
+			if (previous >= value) {
+				return false;
+			}
+		} while (!table.compareAndSetLastSeen(serialNumber, previous, value));
+		if (previous != 0) {
+			expiry.remove(entry(previous - 1, serialNumber));
+		}
+		expiry.add(entry(day, serialNumber));
+		return true;
+	}
+
+	private final static long entry(final int day, final long serialNumber) {
+		return ((long) day << serialNumberBits) | serialNumber;
+	}
+
+	/**
+	 * Get day device was last seen.
+	 *
+	 * @param serialNumber
+	 * @return Days since epoch, or -1 if never seen.
+	 */
+	public int get(final long serialNumber) {
+		return table.getLastSeen(serialNumber) - 1;
+	}
+
+	public void remove(final long serialNumber) {
+		final int previous = table.getAndClearLastSeen(serialNumber);
+		if (previous != 0) {
+			expiry.remove(entry(previous - 1, serialNumber));
+		}
+		dirty.remove(serialNumber);
+	}
+
+	/**
+	 * Get and clear changes since last drain. Devices seen again while draining
+	 * are marked for the next drain.
+	 *
+	 * @return Day last seen by serial number.
+	 */
+	public Map<Long, Integer> drain() {
+		final Map<Long, Integer> changes = new HashMap<>();
+		final Iterator<Long> iterator = dirty.iterator();
+		while (iterator.hasNext()) {
+			final Long serialNumber = iterator.next();
+			iterator.remove();
+			final int day = get(serialNumber);
+			if (day >= 0) {
+				changes.put(serialNumber, day);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Get devices last seen before day, in order of day last seen. Only entries
+	 * of the expiry index before the day are visited.
+	 *
+	 * @param day Days since epoch.
+	 * @return Serial numbers.
+	 */
+	public Set<Long> before(final int day) {
+		final Set<Long> serialNumbers = new LinkedHashSet<>();
+		final Iterator<Long> iterator = expiry.headSet(entry(day, 0), false).iterator();
+		while (iterator.hasNext()) {
+			final long entry = iterator.next();
+			final long serialNumber = entry & ((1l << serialNumberBits) - 1);
+			if (get(serialNumber) == (int) (entry >>> serialNumberBits)) {
+				serialNumbers.add(serialNumber);
+			} else {
+				iterator.remove();
+			}
+		}
+		return serialNumbers;
+	}
+}
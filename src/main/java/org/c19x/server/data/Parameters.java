@@ -3,6 +3,7 @@ package org.c19x.server.data;
 import java.io.File;
 import java.nio.file.Files;
 
+import org.c19x.util.KeyValueStore;
 import org.c19x.util.Logger;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
@@ -35,6 +36,42 @@ public class Parameters {
 	protected int expireConfirmedDiagnosis = 8;
 	// Registration expiry in days to delete inactive devices.
 	protected int expireInactivity = 21;
+	// Day code hash chain steps between stored checkpoints, between 1 and the
+	// number of days in the chain, applied on server start. Higher values use
+	// less memory but more hashing per lookup.
+	protected int dayCodesInterval = DayCodes.defaultInterval;
+	// Number of threads for deriving beacon code seeds on infection data update, 1
+	// for sequential.
+	protected int infectionDataParallelism = Runtime.getRuntime().availableProcessors();
+	// Maximum delay in milliseconds for grouping device store writes into one
+	// commit, 0 to commit every write, applied on server start.
+	protected int storeCommitInterval = 10;
+	// Number of pending device store writes that trigger a commit before the
+	// commit interval elapses.
+	protected int storeCommitBatch = 256;
+	// Interval in minutes for persisting device activity, which bounds the
+	// activity lost on a crash, 0 or less to persist on shutdown only, applied on
+	// server start.
+	protected int lastSeenFlush = 5;
+	// Maximum number of device keys cached for authenticating requests, applied
+	// on server start.
+	protected int secretKeyCacheSize = 65536;
+	// Storage engine for device stores, mapdb, log (append-only log with
+	// compaction) or memory (not persisted, for testing), applied on server start.
+	// Changing engine starts from empty stores.
+	protected String storageEngine = KeyValueStore.mapdb;
+	// Maximum number of day codes held in memory, excluding devices reporting a
+	// status other than normal, applied on server start.
+	protected int dayCodesCacheSize = 16384;
+	// Interval in minutes between checks for compacting device stores, 0 to
+	// disable, applied on server start.
+	protected int compactionInterval = 60;
+	// Minimum estimated free space of a device store file in percent for
+	// compaction.
+	protected int compactionFreeRatio = 50;
+	// Maximum device store writes per minute since the previous check for
+	// compaction, thus compaction runs during low traffic.
+	protected int compactionLowTraffic = 60;
 
 	public Parameters() {
 	}
@@ -85,6 +122,32 @@ public class Parameters {
 						.parseInt((String) j.getOrDefault("expireConfirmedDiagnosis", Integer.toString(update)));
 				expireInactivity = Integer
 						.parseInt((String) j.getOrDefault("expireInactivity", Integer.toString(update)));
+				dayCodesInterval = Integer
+						.parseInt((String) j.getOrDefault("dayCodesInterval", Integer.toString(dayCodesInterval)));
+				if (dayCodesInterval < 1 || dayCodesInterval > DayCodes.days) {
+					Logger.warn(tag, "Day codes interval out of range, clamped (dayCodesInterval={})",
+							dayCodesInterval);
+					dayCodesInterval = Math.max(1, Math.min(DayCodes.days, dayCodesInterval));
+				}
+				infectionDataParallelism = Integer.parseInt((String) j.getOrDefault("infectionDataParallelism",
+						Integer.toString(infectionDataParallelism)));
+				storeCommitInterval = Integer.parseInt(
+						(String) j.getOrDefault("storeCommitInterval", Integer.toString(storeCommitInterval)));
+				storeCommitBatch = Integer
+						.parseInt((String) j.getOrDefault("storeCommitBatch", Integer.toString(storeCommitBatch)));
+				lastSeenFlush = Integer
+						.parseInt((String) j.getOrDefault("lastSeenFlush", Integer.toString(lastSeenFlush)));
+				secretKeyCacheSize = Integer.parseInt(
+						(String) j.getOrDefault("secretKeyCacheSize", Integer.toString(secretKeyCacheSize)));
+				storageEngine = (String) j.getOrDefault("storageEngine", storageEngine);
+				dayCodesCacheSize = Integer.parseInt(
+						(String) j.getOrDefault("dayCodesCacheSize", Integer.toString(dayCodesCacheSize)));
+				compactionInterval = Integer.parseInt(
+						(String) j.getOrDefault("compactionInterval", Integer.toString(compactionInterval)));
+				compactionFreeRatio = Integer.parseInt(
+						(String) j.getOrDefault("compactionFreeRatio", Integer.toString(compactionFreeRatio)));
+				compactionLowTraffic = Integer.parseInt(
+						(String) j.getOrDefault("compactionLowTraffic", Integer.toString(compactionLowTraffic)));
 			}
 		} catch (Exception e) {
 			Logger.warn(tag, "Failed to parse string", e);
@@ -127,6 +190,50 @@ public class Parameters {
 		return expireInactivity;
 	}
 
+	public int getDayCodesInterval() {
+		return dayCodesInterval;
+	}
+
+	public int getInfectionDataParallelism() {
+		return infectionDataParallelism;
+	}
+
+	public int getStoreCommitInterval() {
+		return storeCommitInterval;
+	}
+
+	public int getStoreCommitBatch() {
+		return storeCommitBatch;
+	}
+
+	public int getLastSeenFlush() {
+		return lastSeenFlush;
+	}
+
+	public int getSecretKeyCacheSize() {
+		return secretKeyCacheSize;
+	}
+
+	public String getStorageEngine() {
+		return storageEngine;
+	}
+
+	public int getDayCodesCacheSize() {
+		return dayCodesCacheSize;
+	}
+
+	public int getCompactionInterval() {
+		return compactionInterval;
+	}
+
+	public int getCompactionFreeRatio() {
+		return compactionFreeRatio;
+	}
+
+	public int getCompactionLowTraffic() {
+		return compactionLowTraffic;
+	}
+
 	@Override
 	public String toString() {
 		return "Parameters [server=" + server + ", retention=" + retention + ", proximity=" + proximity + ", exposure="
@@ -0,0 +1,136 @@
+package org.c19x.server.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory index of devices that have reported a status other than normal
+ * (0), ordered by status timestamp per status. Infection data is built from
+ * this index, thus the cost of a rebuild depends on the number of current
+ * reports rather than the number of registrations, and expired reports are
+ * excluded by a range query instead of a full scan.
+ *
+ * @author user
+ *
+ */
+public class StatusIndex {
+	private final static String normal = "0";
+	private final Map<String, Report> reports = new ConcurrentHashMap<>();
+	private final Map<String, NavigableSet<Report>> statuses = new ConcurrentHashMap<>();
+
+	/**
+	 * Status report of a device.
+	 */
+	public final static class Report implements Comparable<Report> {
+		public final String serialNumber;
+		public final String status;
+		public final long timestamp;
+
+		public Report(final String serialNumber, final String status, final long timestamp) {
+			this.serialNumber = serialNumber;
+			this.status = status;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public int compareTo(final Report other) {
+			final int byTimestamp = Long.compare(timestamp, other.timestamp);
+			return (byTimestamp != 0 ? byTimestamp : serialNumber.compareTo(other.serialNumber));
+		}
+
+		@Override
+		public boolean equals(final Object other) {
+			if (!(other instanceof Report)) {
+				return false;
+			}
+			final Report report = (Report) other;
+			return timestamp == report.timestamp && serialNumber.equals(report.serialNumber);
+		}
+
+		@Override
+		public int hashCode() {
+			return serialNumber.hashCode() ^ Long.hashCode(timestamp);
+		}
+
+		@Override
+		public String toString() {
+			return "Report [serialNumber=" + serialNumber + ", status=" + status + ", timestamp=" + timestamp + "]";
+		}
+	}
+
+	/**
+	 * Set current status of device.
+	 *
+	 * @param serialNumber
+	 * @param status
+	 * @param timestamp    Status timestamp.
+	 */
+	public void set(final String serialNumber, final String status, final long timestamp) {
+		reports.compute(serialNumber, (key, previous) -> {
+			if (previous != null) {
+				statuses.get(previous.status).remove(previous);
+			}
+			if (status == null || normal.equals(status)) {
+				return null;
+			}
+			final Report report = new Report(serialNumber, status, timestamp);
+			statuses.computeIfAbsent(status, s -> new ConcurrentSkipListSet<>()).add(report);
+			return report;
+		});
+	}
+
+	public void remove(final String serialNumber) {
+		set(serialNumber, null, 0);
+	}
+
+	public void clear() {
+		reports.keySet().forEach(serialNumber -> remove(serialNumber));
+	}
+
+	/**
+	 * Get all reported statuses other than normal.
+	 *
+	 * @return
+	 */
+	public Set<String> getStatuses() {
+		return Collections.unmodifiableSet(statuses.keySet());
+	}
+
+	/**
+	 * Get reports of status in timestamp order.
+	 *
+	 * @param status
+	 * @param since  Inclusive minimum status timestamp.
+	 * @return Live view of reports.
+	 */
+	public NavigableSet<Report> get(final String status, final long since) {
+		final NavigableSet<Report> reports = statuses.get(status);
+		if (reports == null) {
+			return Collections.emptyNavigableSet();
+		}
+		return reports.tailSet(new Report("", status, since), true);
+	}
+
+	/**
+	 * Get reports of status before timestamp in timestamp order.
+	 *
+	 * @param status
+	 * @param before Exclusive maximum status timestamp.
+	 * @return Live view of reports.
+	 */
+	public NavigableSet<Report> getBefore(final String status, final long before) {
+		final NavigableSet<Report> reports = statuses.get(status);
+		if (reports == null) {
+			return Collections.emptyNavigableSet();
+		}
+		return reports.headSet(new Report("", status, before), false);
+	}
+
+	public int size() {
+		return reports.size();
+	}
+}
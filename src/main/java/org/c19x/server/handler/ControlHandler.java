@@ -1,9 +1,11 @@
 package org.c19x.server.handler;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -16,6 +18,7 @@ import org.c19x.server.session.AuditLog;
 import org.c19x.server.session.Session;
 import org.c19x.server.session.SessionManager;
 import org.c19x.util.Logger;
+import org.c19x.util.StoreCompactor;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.json.simple.JSONArray;
@@ -36,7 +39,11 @@ public class ControlHandler extends AbstractHandler {
 			+ "GET /control?command=message&serialNumber=[serialNumber]&message=[message]&token=[token]\n"
 			+ "Set message for registered device with [serialNumber] to [message].\n\n"
 			+ "GET /control?command=infectionData&token=[token]\n"
-			+ "Update infection data immediately.";
+			+ "Update infection data immediately.\n\n"
+			+ "GET /control?command=backup&token=[token]\n"
+			+ "Back up device database to a compressed archive in the backup folder of the database folder, while the server is running.\n\n"
+			+ "GET /control?command=storage&token=[token]\n"
+			+ "Get size, estimated free space and compaction metrics of device stores.";
 	// @formatter:on
 	private final SessionManager sessionManager;
 	private final AuditLog auditLog;
@@ -114,11 +121,39 @@ public class ControlHandler extends AbstractHandler {
 								"serialNumber=" + serialNumber, "messageHash=" + message.hashCode());
 						break;
 					}
+					case "backup": {
+						final long start = System.currentTimeMillis();
+						final File file = devices.backup();
+						response.setContentType("application/json");
+						response.setCharacterEncoding("UTF-8");
+						final PrintWriter printWriter = response.getWriter();
+						printWriter.write(backup(file, System.currentTimeMillis() - start));
+						printWriter.flush();
+						printWriter.close();
+						Logger.debug(tag, "Backup (file={})", file);
+						auditLog.log("control", "function=backup", "user=" + session.user.name,
+								"file=" + file.getName());
+						break;
+					}
+					case "storage": {
+						response.setContentType("application/json");
+						response.setCharacterEncoding("UTF-8");
+						final PrintWriter printWriter = response.getWriter();
+						printWriter.write(storage(devices.getStoreMetrics()));
+						printWriter.flush();
+						printWriter.close();
+						Logger.debug(tag, "Storage");
+						auditLog.log("control", "function=storage", "user=" + session.user.name);
+						break;
+					}
 					case "list": {
 						response.setContentType("application/json");
 						response.setCharacterEncoding("UTF-8");
 						final PrintWriter printWriter = response.getWriter();
-						final String list = list(devices);
+						final String list;
+						try (final Devices.Snapshot snapshot = devices.snapshot()) {
+							list = list(snapshot);
+						}
 						printWriter.write(list);
 						printWriter.flush();
 						printWriter.close();
@@ -130,7 +165,10 @@ public class ControlHandler extends AbstractHandler {
 						response.setContentType("application/json");
 						response.setCharacterEncoding("UTF-8");
 						final PrintWriter printWriter = response.getWriter();
-						final String list = summary(devices);
+						final String list;
+						try (final Devices.Snapshot snapshot = devices.snapshot()) {
+							list = summary(snapshot);
+						}
 						printWriter.write(list);
 						printWriter.flush();
 						printWriter.close();
@@ -156,24 +194,42 @@ public class ControlHandler extends AbstractHandler {
 	}
 
 	@SuppressWarnings("unchecked")
-	private final static String summary(final Devices devices) {
+	private final static String backup(final File file, final long elapsed) {
+		final JSONObject j = new JSONObject();
+		j.put("file", file.getName());
+		j.put("bytes", Long.toString(file.length()));
+		j.put("elapsed", Long.toString(elapsed));
+		return j.toJSONString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private final static String storage(final Map<String, StoreCompactor.Metrics> metrics) {
+		final JSONObject o = new JSONObject();
+		metrics.forEach((name, m) -> {
+			final JSONObject j = new JSONObject();
+			j.put("fileSize", Long.toString(m.fileSize));
+			j.put("freeRatio", Double.toString(m.freeRatio));
+			j.put("mutations", Long.toString(m.mutations));
+			j.put("compactions", Long.toString(m.compactions));
+			j.put("reclaimedBytes", Long.toString(m.reclaimedBytes));
+			j.put("elapsed", Long.toString(m.elapsed));
+			j.put("lastCompaction", Long.toString(m.lastCompaction));
+			j.put("lastReclaimedBytes", Long.toString(m.lastReclaimedBytes));
+			j.put("lastElapsed", Long.toString(m.lastElapsed));
+			o.put(name, j);
+		});
+		return o.toJSONString();
+	}
+
+	@SuppressWarnings("unchecked")
+	private final static String summary(final Devices.Snapshot devices) {
 		final JSONObject o = new JSONObject();
 		{
 			// STATUS
-			long healthy = 0, symptomatic = 0, confirmedDiagnosis = 0;
-			for (final String serialNumber : devices.getSerialNumbers()) {
-				switch (devices.getStatus(serialNumber)) {
-				case "0":
-					healthy++;
-					break;
-				case "1":
-					symptomatic++;
-					break;
-				case "2":
-					confirmedDiagnosis++;
-					break;
-				}
-			}
+			final Map<String, Long> counts = devices.getStatusCounts();
+			final long healthy = counts.getOrDefault("0", 0l);
+			final long symptomatic = counts.getOrDefault("1", 0l);
+			final long confirmedDiagnosis = counts.getOrDefault("2", 0l);
 			final JSONObject j = new JSONObject();
 			j.put("healthy", Long.toString(healthy));
 			j.put("symptomatic", Long.toString(symptomatic));
@@ -185,7 +241,7 @@ public class ControlHandler extends AbstractHandler {
 	}
 
 	@SuppressWarnings("unchecked")
-	private final static String list(final Devices devices) {
+	private final static String list(final Devices.Snapshot devices) {
 		final JSONArray j = new JSONArray();
 		final List<String> serialNumbers = new ArrayList<>(devices.getSerialNumbers());
 		serialNumbers.sort((a, b) -> Long.compare(Long.parseLong(a), Long.parseLong(b)));
@@ -1,42 +1,323 @@
 package org.c19x.server.handler;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.c19x.server.data.BinaryInfectionData;
 import org.c19x.server.data.InfectionData;
+import org.c19x.server.data.InfectionDataDelta;
+import org.c19x.server.data.InfectionDataSnapshot;
 import org.c19x.util.Logger;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+/**
+ * Publishes infection data. Clients may pass the version of their copy as
+ * ?since=version to obtain only the changes since that version, see
+ * InfectionDataDelta. The version of the data is returned in the C19X-Version
+ * header, and delta responses carry a C19X-Delta-Since header. A full snapshot
+ * is returned for unknown or expired versions.<br>
+ * Infection data is also published per day, see InfectionDataShards :<br>
+ * GET /infectionData/index lists days and their content hash.<br>
+ * GET /infectionData/day/[day]/[hash] gets immutable infection data for a day.
+ * <br>
+ * Given a folder, published payloads are written to files and served from
+ * read-only memory mappings, thus they are held off-heap. Given a snapshot
+ * file, every publication is persisted and the last publication is restored on
+ * construction, see InfectionDataSnapshot.
+ * 
+ * @author user
+ *
+ */
 public class InfectionDataHandler extends AbstractHandler {
 	private final static String tag = InfectionDataHandler.class.getName();
-	private String data = "";
+	private final static String jsonContentType = "application/json;charset=utf-8";
+	private final static String versionHeader = "C19X-Version";
+	private final static String deltaSinceHeader = "C19X-Delta-Since";
+	private final static String immutable = "public, max-age=31536000, immutable";
+	// Number of published versions retained for computing deltas
+	private final static int historySize = 14;
+	private final Deque<Version> history = new ArrayDeque<>(historySize);
+	private final File folder;
+	private final File snapshotFile;
+	private long snapshotVersion = 0;
+	private volatile Version current = new Version(0, Collections.emptyMap());
+	// Delta payloads from previous versions to current version
+	private final Map<String, Payload> deltas = new ConcurrentHashMap<>();
+	private volatile InfectionDataShards shards = new InfectionDataShards();
 
-	public synchronized void set(final InfectionData infectionData) {
-		this.data = infectionData.toJSON();
-		Logger.info(tag, "Updated (dataSize={})", data.length());
+	/**
+	 * Published version of infection data.
+	 */
+	private final static class Version {
+		private final long version;
+		private final Payload jsonPayload;
+		private final Payload binaryPayload;
+
+		private Version(final long version, final byte[] json, final byte[] binary, final File folder) {
+			this.version = version;
+			this.jsonPayload = new Payload(jsonContentType, json, version,
+					(folder == null ? null : new File(folder, version + ".json")));
+			this.binaryPayload = new Payload(BinaryInfectionData.contentType, binary, version,
+					(folder == null ? null : new File(folder, version + ".bin")));
+		}
+
+		private Version(final long version, final Map<String, long[]> seeds) {
+			this(version, (seeds.isEmpty() ? new byte[0] : InfectionData.toJSON(seeds)),
+					BinaryInfectionData.encode(seeds), null);
+		}
+
+		private Map<String, long[]> seeds() {
+			return BinaryInfectionData.decode(binaryPayload.getContent());
+		}
+
+		private void delete() {
+			jsonPayload.delete();
+			binaryPayload.delete();
+		}
+	}
+
+	/**
+	 * Infection data handler with payloads held on heap.
+	 */
+	public InfectionDataHandler() {
+		this.folder = null;
+		this.snapshotFile = null;
+	}
+
+	/**
+	 * Infection data handler with payloads memory mapped from files in folder.
+	 * Files from a previous run are deleted.
+	 * 
+	 * @param folder Folder for payload files.
+	 */
+	public InfectionDataHandler(final File folder) {
+		this(folder, null);
+	}
+
+	/**
+	 * Infection data handler with payloads memory mapped from files in folder,
+	 * restoring the last published infection data from snapshot file if present.
+	 * Payload files from a previous run are deleted.
+	 * 
+	 * @param folder       Folder for payload files.
+	 * @param snapshotFile Snapshot file outside of folder.
+	 */
+	public InfectionDataHandler(final File folder, final File snapshotFile) {
+		if (!folder.exists()) {
+			folder.mkdirs();
+		}
+		final File[] files = folder.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (file.isFile() && !file.delete()) {
+					Logger.warn(tag, "Failed to delete payload file (file={})", file);
+				}
+			}
+		}
+		this.folder = folder;
+		this.snapshotFile = snapshotFile;
+		if (snapshotFile != null && snapshotFile.exists()) {
+			try {
+				final InfectionDataSnapshot snapshot = InfectionDataSnapshot.read(snapshotFile);
+				publish(snapshot.getVersion(), snapshot.getInfectionData());
+				snapshotVersion = snapshot.getVersion();
+				Logger.info(tag, "Restored snapshot (file={},version={})", snapshotFile, snapshot.getVersion());
+			} catch (Throwable e) {
+				Logger.warn(tag, "Failed to restore snapshot (file={})", snapshotFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Publish infection data. All representations and content codings are encoded
+	 * once here rather than on every request, and the publication is persisted
+	 * to the snapshot file if enabled.
+	 * 
+	 * @param infectionData
+	 */
+	public void set(final InfectionData infectionData) {
+		final long version;
+		synchronized (history) {
+			// Version is publication time, strictly increasing
+			version = Math.max(System.currentTimeMillis(), current.version + 1);
+			publish(version, infectionData);
+		}
+		if (snapshotFile != null) {
+			synchronized (snapshotFile) {
+				// Concurrent publications must not replace a later snapshot
+				if (version <= snapshotVersion) {
+					return;
+				}
+				try {
+					new InfectionDataSnapshot(version, infectionData).write(snapshotFile);
+					snapshotVersion = version;
+					Logger.debug(tag, "Saved snapshot (file={},version={})", snapshotFile, version);
+				} catch (Throwable e) {
+					Logger.warn(tag, "Failed to save snapshot (file={},version={})", snapshotFile, version, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Publish infection data as version.
+	 * 
+	 * @param versionNumber
+	 * @param infectionData
+	 */
+	private void publish(final long versionNumber, final InfectionData infectionData) {
+		final Version version;
+		synchronized (history) {
+			version = new Version(versionNumber, infectionData.toJSONBytes(), infectionData.toBinary(), folder);
+			if (history.size() == historySize) {
+				history.removeFirst().delete();
+			}
+			history.addLast(version);
+			current = version;
+			deltas.clear();
+			shards = new InfectionDataShards(version.version, infectionData, shards, folder);
+		}
+		Logger.info(tag,
+				"Updated (version={},dataSize={},compressedSize={},binarySize={},compressedBinarySize={},eTag={})",
+				version.version, version.jsonPayload.size(), version.jsonPayload.compressedSize(),
+				version.binaryPayload.size(), version.binaryPayload.compressedSize(), version.jsonPayload.getETag());
+		Logger.info(tag, "Updated shards (days={})", shards.size());
 	}
 
-	private synchronized String get() {
-		return data;
+	/**
+	 * Get changes from version to current version.
+	 * 
+	 * @param since  Version held by client.
+	 * @param binary Binary or JSON representation.
+	 * @param latest Current version.
+	 * @return Delta, or null if version is not in history.
+	 */
+	private Payload getDelta(final long since, final boolean binary, final Version latest) {
+		final String key = since + (binary ? ":binary" : ":json");
+		Payload delta = deltas.get(key);
+		if (delta != null) {
+			return delta;
+		}
+		final Version from;
+		synchronized (history) {
+			if (latest != current) {
+				return null;
+			}
+			from = history.stream().filter(v -> v.version == since).findFirst().orElse(null);
+		}
+		if (from == null) {
+			return null;
+		}
+		final Map<String, long[]> changes = InfectionDataDelta.diff(from.seeds(), latest.seeds());
+		delta = (binary
+				? new Payload(BinaryInfectionData.contentType, BinaryInfectionData.encode(changes), latest.version)
+				: new Payload(jsonContentType, InfectionData.toJSON(changes), latest.version));
+		synchronized (history) {
+			if (latest == current) {
+				deltas.put(key, delta);
+			}
+		}
+		Logger.debug(tag, "Delta (since={},version={},binary={},size={})", since, latest.version, binary,
+				delta.size());
+		return delta;
+	}
+
+	/**
+	 * Client accepts binary infection data, JSON is the default for existing
+	 * clients.
+	 * 
+	 * @param request
+	 * @return
+	 */
+	private final static boolean acceptsBinary(final HttpServletRequest request) {
+		final String accept = request.getHeader(HttpHeader.ACCEPT.asString());
+		return accept != null && accept.contains(BinaryInfectionData.contentType);
+	}
+
+	/**
+	 * Send index or shard for path /index or /day/[day]/[hash].
+	 * 
+	 * @param target
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	private void handleShards(final String target, final HttpServletRequest request,
+			final HttpServletResponse response) throws IOException {
+		final InfectionDataShards shards = this.shards;
+		final String[] path = target.substring(1).split("/");
+		if (path.length == 1 && path[0].equals("index")) {
+			shards.getIndex().send(request, response);
+			return;
+		}
+		if (path.length < 2 || path.length > 3 || !path[0].equals("day")) {
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		final int day;
+		try {
+			day = Integer.parseInt(path[1]);
+		} catch (NumberFormatException e) {
+			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			return;
+		}
+		final InfectionDataShards.Shard shard = shards.get(day);
+		if (shard == null || (path.length == 3 && !path[2].equals(shard.hash))) {
+			// Day without infection data, or superseded content
+			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		if (path.length == 3) {
+			response.setHeader(HttpHeader.CACHE_CONTROL.asString(), immutable);
+		}
+		(acceptsBinary(request) ? shard.binaryPayload : shard.jsonPayload).send(request, response);
 	}
 
 	@Override
 	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
 			throws IOException, ServletException {
 		try {
-			response.setContentType("application/json");
-			response.setCharacterEncoding("UTF-8");
-			response.setStatus(HttpServletResponse.SC_OK);
-			final PrintWriter printWriter = response.getWriter();
-			printWriter.write(get());
-			printWriter.flush();
-			printWriter.close();
-			Logger.debug(tag, "Success (fromAddress={})", request.getRemoteAddr().hashCode());
+			response.setHeader(HttpHeader.VARY.asString(),
+					HttpHeader.ACCEPT.asString() + ", " + HttpHeader.ACCEPT_ENCODING.asString());
+			if (target != null && target.length() > 1) {
+				handleShards(target, request, response);
+				Logger.debug(tag, "Success (fromAddress={},status={},target={})", request.getRemoteAddr().hashCode(),
+						response.getStatus(), target);
+				return;
+			}
+			final boolean binary = acceptsBinary(request);
+			final Version latest = current;
+			response.setHeader(versionHeader, Long.toString(latest.version));
+			Payload payload = null;
+			final String since = request.getParameter("since");
+			if (since != null) {
+				try {
+					payload = getDelta(Long.parseLong(since), binary, latest);
+				} catch (NumberFormatException e) {
+					Logger.debug(tag, "Invalid version (fromAddress={},since={})", request.getRemoteAddr().hashCode(),
+							since);
+				}
+				if (payload != null) {
+					response.setHeader(deltaSinceHeader, since);
+				}
+			}
+			if (payload == null) {
+				payload = (binary ? latest.binaryPayload : latest.jsonPayload);
+			}
+			payload.send(request, response);
+			Logger.debug(tag, "Success (fromAddress={},status={},since={})", request.getRemoteAddr().hashCode(),
+					response.getStatus(), since);
 		} catch (Throwable e) {
 			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
 			Logger.warn(tag, "Failed", e);
@@ -44,4 +325,4 @@ public class InfectionDataHandler extends AbstractHandler {
 			baseRequest.setHandled(true);
 		}
 	}
-}
\ No newline at end of file
+}
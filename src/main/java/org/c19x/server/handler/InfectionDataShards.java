@@ -0,0 +1,134 @@
+package org.c19x.server.handler;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.c19x.server.data.BinaryInfectionData;
+import org.c19x.server.data.InfectionData;
+import org.json.simple.JSONObject;
+
+/**
+ * Infection data partitioned by day index, published as immutable shards
+ * addressed by content hash, and an index listing the hash of each day. A
+ * shard for a day changes only when reports are added or expire, thus clients
+ * only download days with a new hash, and a shard URL with its hash can be
+ * cached indefinitely. Shards with unchanged content are carried over from the
+ * previous publication rather than encoded again. Shard payloads may be memory
+ * mapped from files in a folder, named by day and hash.
+ *
+ * @author user
+ *
+ */
+public class InfectionDataShards {
+	private final static String jsonContentType = "application/json;charset=utf-8";
+	private final SortedMap<Integer, Shard> shards;
+	private final Payload index;
+
+	/**
+	 * Infection data for a day.
+	 */
+	protected final static class Shard {
+		// Content hash of binary representation, same for all representations
+		protected final String hash;
+		protected final Payload jsonPayload;
+		protected final Payload binaryPayload;
+
+		private Shard(final String hash, final Payload jsonPayload, final Payload binaryPayload) {
+			this.hash = hash;
+			this.jsonPayload = jsonPayload;
+			this.binaryPayload = binaryPayload;
+		}
+	}
+
+	public InfectionDataShards() {
+		this.shards = Collections.emptySortedMap();
+		this.index = index(0, shards, System.currentTimeMillis());
+	}
+
+	/**
+	 * Shard infection data.
+	 *
+	 * @param version       Version of infection data.
+	 * @param infectionData
+	 * @param previous      Previously published shards for reuse.
+	 */
+	public InfectionDataShards(final long version, final InfectionData infectionData,
+			final InfectionDataShards previous) {
+		this(version, infectionData, previous, null);
+	}
+
+	/**
+	 * Shard infection data. Shards of the previous publication that are not
+	 * carried over have their files deleted.
+	 *
+	 * @param version       Version of infection data.
+	 * @param infectionData
+	 * @param previous      Previously published shards for reuse.
+	 * @param folder        Folder for memory mapped payloads, or null to keep
+	 *                      payloads on heap.
+	 */
+	public InfectionDataShards(final long version, final InfectionData infectionData,
+			final InfectionDataShards previous, final File folder) {
+		final SortedMap<Integer, Shard> shards = new TreeMap<>();
+		infectionData.getDays().forEach((day, seeds) -> {
+			final byte[] binary = BinaryInfectionData.encode(seeds);
+			final String hash = Payload.hash(binary);
+			final Shard existing = previous.shards.get(day);
+			if (existing != null && existing.hash.equals(hash)) {
+				shards.put(day, existing);
+			} else {
+				final String name = "day-" + day + "-" + hash;
+				shards.put(day, new Shard(hash,
+						new Payload(jsonContentType, InfectionData.toJSON(seeds), version,
+								(folder == null ? null : new File(folder, name + ".json"))),
+						new Payload(BinaryInfectionData.contentType, binary, version,
+								(folder == null ? null : new File(folder, name + ".bin")))));
+			}
+		});
+		previous.shards.forEach((day, shard) -> {
+			if (shards.get(day) != shard) {
+				shard.jsonPayload.delete();
+				shard.binaryPayload.delete();
+			}
+		});
+		this.shards = Collections.unmodifiableSortedMap(shards);
+		this.index = index(version, this.shards, version);
+	}
+
+	@SuppressWarnings("unchecked")
+	private final static Payload index(final long version, final SortedMap<Integer, Shard> shards,
+			final long lastModified) {
+		final JSONObject j = new JSONObject();
+		j.put("version", Long.toString(version));
+		final JSONObject days = new JSONObject();
+		shards.forEach((day, shard) -> days.put(Integer.toString(day), shard.hash));
+		j.put("days", days);
+		return new Payload(jsonContentType, j.toJSONString().getBytes(StandardCharsets.UTF_8), lastModified);
+	}
+
+	/**
+	 * Get index of days and their content hash.
+	 *
+	 * @return
+	 */
+	public Payload getIndex() {
+		return index;
+	}
+
+	/**
+	 * Get shard for day.
+	 *
+	 * @param day
+	 * @return Shard, or null if there is no infection data for the day.
+	 */
+	protected Shard get(final int day) {
+		return shards.get(day);
+	}
+
+	public int size() {
+		return shards.size();
+	}
+}
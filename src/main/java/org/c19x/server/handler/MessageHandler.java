@@ -3,6 +3,7 @@ package org.c19x.server.handler;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -27,9 +28,9 @@ public class MessageHandler extends AbstractHandler {
 		try {
 			final String serialNumber = request.getParameter("key");
 			final String value = request.getParameter("value");
-			final byte[] sharedSecret = devices.getSharedSecret(serialNumber);
-			if (sharedSecret != null) {
-				final String timeWindow = SecurityUtil.decrypt(sharedSecret, value);
+			final SecretKeySpec secretKey = devices.getSecretKey(serialNumber);
+			if (secretKey != null) {
+				final String timeWindow = SecurityUtil.decrypt(secretKey, value);
 				if (Math.abs(Long.parseLong(timeWindow) - System.currentTimeMillis()) < 150000) {
 					response.setContentType("text/plain");
 					response.setCharacterEncoding("UTF-8");
@@ -0,0 +1,307 @@
+package org.c19x.server.handler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.c19x.util.Logger;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * Immutable response body that is encoded once on publication and served many
+ * times. The identity and gzip content codings are prepared up front, and a
+ * strong entity tag derived from the content enables conditional requests.
+ * Payloads backed by a file are memory mapped read-only, thus the content is
+ * held off-heap in the page cache, and it is handed to Jetty as a buffer for
+ * asynchronous writing without per-request copies.
+ *
+ * @author user
+ *
+ */
+public class Payload {
+	private final static String tag = Payload.class.getName();
+	private final static String gzipEncoding = "gzip";
+	private final String contentType;
+	private final ByteBuffer identity;
+	private final ByteBuffer gzip;
+	private final File[] files;
+	private final String eTag;
+	private final String gzipETag;
+	private final long lastModified;
+
+	/**
+	 * Encode payload.
+	 *
+	 * @param contentType  Content type including character encoding if applicable.
+	 * @param data         Content in identity coding.
+	 * @param lastModified Publication time.
+	 */
+	public Payload(final String contentType, final byte[] data, final long lastModified) {
+		this(contentType, data, lastModified, null);
+	}
+
+	/**
+	 * Encode payload and write content codings to file for memory mapped access.
+	 * The heap copy of the content is not retained.
+	 *
+	 * @param contentType  Content type including character encoding if applicable.
+	 * @param data         Content in identity coding.
+	 * @param lastModified Publication time.
+	 * @param file         File for identity coding, gzip coding is written to
+	 *                     file.gz, or null to keep content on heap.
+	 */
+	public Payload(final String contentType, final byte[] data, final long lastModified, final File file) {
+		this.contentType = contentType;
+		final byte[] gzipData = gzip(data);
+		ByteBuffer identity = null;
+		ByteBuffer gzip = null;
+		File[] files = new File[0];
+		if (file != null) {
+			final File gzipFile = new File(file.getParentFile(), file.getName() + ".gz");
+			try {
+				identity = map(file, data);
+				gzip = (gzipData == null ? null : map(gzipFile, gzipData));
+				files = new File[] { file, gzipFile };
+			} catch (Throwable e) {
+				Logger.warn(tag, "Failed to map payload, content held on heap (file={})", file, e);
+				file.delete();
+				gzipFile.delete();
+				identity = null;
+			}
+		}
+		if (identity == null) {
+			identity = ByteBuffer.wrap(data).asReadOnlyBuffer();
+			gzip = (gzipData == null ? null : ByteBuffer.wrap(gzipData).asReadOnlyBuffer());
+		}
+		this.identity = identity;
+		this.gzip = gzip;
+		this.files = files;
+		final String hash = hash(data);
+		this.eTag = "\"" + hash + "\"";
+		this.gzipETag = "\"" + hash + "-" + gzipEncoding + "\"";
+		// HTTP dates have second resolution
+		this.lastModified = (lastModified / 1000) * 1000;
+	}
+
+	private final static byte[] gzip(final byte[] data) {
+		try {
+			final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(data.length / 2 + 64);
+			try (final GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream)) {
+				gzipOutputStream.write(data);
+			}
+			return byteArrayOutputStream.toByteArray();
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to compress payload", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Write data to file and map file read-only.
+	 *
+	 * @param file
+	 * @param data
+	 * @return
+	 * @throws IOException
+	 */
+	private final static ByteBuffer map(final File file, final byte[] data) throws IOException {
+		try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer buffer = ByteBuffer.wrap(data);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			// Mapping remains valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, data.length);
+		}
+	}
+
+	/**
+	 * Get content hash as used in entity tag.
+	 *
+	 * @param data
+	 * @return URL safe Base64 encoded SHA-256 hash.
+	 */
+	protected final static String hash(final byte[] data) {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to hash payload", e);
+			return Integer.toHexString(data.length);
+		}
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Get entity tag of identity coding.
+	 *
+	 * @return
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public int size() {
+		return identity.capacity();
+	}
+
+	public int compressedSize() {
+		return (gzip == null ? identity.capacity() : gzip.capacity());
+	}
+
+	/**
+	 * Get content in identity coding.
+	 *
+	 * @return Read-only view of content.
+	 */
+	public ByteBuffer getContent() {
+		return identity.duplicate();
+	}
+
+	/**
+	 * Content is memory mapped from file.
+	 *
+	 * @return
+	 */
+	public boolean isMapped() {
+		return files.length > 0;
+	}
+
+	/**
+	 * Delete backing files once the payload is no longer published. Existing
+	 * mappings, and thus requests in progress, remain valid.
+	 */
+	public void delete() {
+		for (final File file : files) {
+			if (file.exists() && !file.delete()) {
+				Logger.warn(tag, "Failed to delete payload file (file={})", file);
+			}
+		}
+	}
+
+	/**
+	 * Client holds a current copy, according to If-None-Match, or If-Modified-Since
+	 * in the absence of If-None-Match.
+	 *
+	 * @param request
+	 * @return
+	 */
+	protected boolean isNotModified(final HttpServletRequest request) {
+		final String ifNoneMatch = request.getHeader(HttpHeader.IF_NONE_MATCH.asString());
+		if (ifNoneMatch != null) {
+			for (final String value : ifNoneMatch.split(",")) {
+				final String candidate = value.trim();
+				if (candidate.equals("*") || candidate.equals(eTag) || candidate.equals(gzipETag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		try {
+			final long ifModifiedSince = request.getDateHeader(HttpHeader.IF_MODIFIED_SINCE.asString());
+			return ifModifiedSince != -1 && lastModified <= ifModifiedSince;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Client accepts content coding, according to Accept-Encoding.
+	 *
+	 * @param request
+	 * @param encoding
+	 * @return
+	 */
+	protected final static boolean acceptsEncoding(final HttpServletRequest request, final String encoding) {
+		final String acceptEncoding = request.getHeader(HttpHeader.ACCEPT_ENCODING.asString());
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (final String value : acceptEncoding.split(",")) {
+			final String[] fields = value.trim().split(";");
+			if (fields[0].trim().equalsIgnoreCase(encoding)) {
+				for (int i = 1; i < fields.length; i++) {
+					final String parameter = fields[i].trim();
+					if (parameter.startsWith("q=")) {
+						try {
+							return Double.parseDouble(parameter.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Send payload, or 304 Not Modified if the client holds a current copy.
+	 *
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	public void send(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		final boolean useGzip = (gzip != null && gzip.capacity() < identity.capacity()
+				&& acceptsEncoding(request, gzipEncoding));
+		response.setHeader(HttpHeader.ETAG.asString(), (useGzip ? gzipETag : eTag));
+		response.setDateHeader(HttpHeader.LAST_MODIFIED.asString(), lastModified);
+		if (isNotModified(request)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		// Duplicate shares content but has its own position for this request
+		final ByteBuffer data = (useGzip ? gzip : identity).duplicate();
+		response.setContentType(contentType);
+		if (useGzip) {
+			response.setHeader(HttpHeader.CONTENT_ENCODING.asString(), gzipEncoding);
+		}
+		response.setContentLength(data.remaining());
+		response.setStatus(HttpServletResponse.SC_OK);
+		final ServletOutputStream outputStream = response.getOutputStream();
+		if (outputStream instanceof HttpOutput) {
+			final AsyncContext asyncContext = request.startAsync();
+			((HttpOutput) outputStream).sendContent(data, new Callback() {
+				@Override
+				public void succeeded() {
+					asyncContext.complete();
+				}
+
+				@Override
+				public void failed(final Throwable e) {
+					Logger.debug(tag, "Failed to send payload (eTag={})", eTag, e);
+					asyncContext.complete();
+				}
+			});
+			return;
+		}
+		final byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		outputStream.write(bytes);
+		outputStream.flush();
+		outputStream.close();
+	}
+}
@@ -3,6 +3,7 @@ package org.c19x.server.handler;
 import java.io.IOException;
 import java.io.PrintWriter;
 
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -27,17 +28,19 @@ public class StatusHandler extends AbstractHandler {
 		try {
 			final String serialNumber = request.getParameter("key");
 			final String value = request.getParameter("value");
-			final byte[] sharedSecret = devices.getSharedSecret(serialNumber);
-			if (sharedSecret != null) {
-				final String decrypted = SecurityUtil.decrypt(sharedSecret, value);
+			final SecretKeySpec secretKey = devices.getSecretKey(serialNumber);
+			if (secretKey != null) {
+				final String decrypted = SecurityUtil.decrypt(secretKey, value);
 				final String[] fields = decrypted.split("\\|");
 				final String timeWindow = fields[0];
 				final String status = fields[1];
 				if (Math.abs(Long.parseLong(timeWindow) - System.currentTimeMillis()) < 150000) {
-					devices.setStatus(serialNumber, status);
+					// Reply once the report is committed
 					if (fields.length > 2) {
 						final String pattern = fields[2];
-						devices.setPattern(serialNumber, pattern);
+						devices.setStatus(serialNumber, status, pattern).join();
+					} else {
+						devices.setStatus(serialNumber, status).join();
 					}
 					response.setContentType("text/plain");
 					response.setCharacterEncoding("UTF-8");
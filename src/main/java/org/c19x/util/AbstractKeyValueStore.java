@@ -0,0 +1,166 @@
+package org.c19x.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commit scheduling shared by persistent stores. By default, every mutation is
+ * committed before returning. In group commit mode, mutations are applied
+ * immediately and committed together by a committer thread at most every
+ * commit interval, or sooner once a batch of mutations is pending, thus
+ * concurrent writers share one commit.
+ *
+ * @author user
+ *
+ */
+public abstract class AbstractKeyValueStore<K, V> implements KeyValueStore<K, V> {
+	private final static String tag = AbstractKeyValueStore.class.getName();
+	protected final static CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+	protected final File file;
+	// Group commit
+	private final long commitInterval;
+	private final int commitBatch;
+	private final Object lock = new Object();
+	private List<CompletableFuture<Void>> pending = new ArrayList<>();
+	private boolean closed = false;
+	private Thread committer = null;
+	private final AtomicLong mutations = new AtomicLong();
+
+	/**
+	 * Store with group commit. Subclasses call startCommitter() once
+	 * initialised.
+	 *
+	 * @param file
+	 * @param commitInterval Maximum delay in milliseconds between a mutation and
+	 *                       its commit, or 0 to commit every mutation immediately.
+	 * @param commitBatch    Number of pending mutations that trigger a commit
+	 *                       before the commit interval elapses.
+	 */
+	protected AbstractKeyValueStore(final File file, final long commitInterval, final int commitBatch) {
+		this.file = file;
+		this.commitInterval = commitInterval;
+		this.commitBatch = Math.max(1, commitBatch);
+	}
+
+	protected boolean isGroupCommit() {
+		return commitInterval > 0;
+	}
+
+	/**
+	 * Start committer thread in group commit mode.
+	 */
+	protected void startCommitter() {
+		if (isGroupCommit()) {
+			committer = new Thread(() -> commitLoop(), "KeyValueStore.commit:" + file.getName());
+			committer.setDaemon(true);
+			committer.start();
+		}
+	}
+
+	/**
+	 * Make all applied mutations durable.
+	 */
+	protected abstract void commitChanges();
+
+	/**
+	 * Release resources after all mutations are committed.
+	 */
+	protected abstract void closeStore();
+
+	/**
+	 * Commit pending mutations in batches until closed.
+	 */
+	private void commitLoop() {
+		while (true) {
+			final List<CompletableFuture<Void>> batch;
+			synchronized (lock) {
+				try {
+					while (pending.isEmpty() && !closed) {
+						lock.wait();
+					}
+					// Wait for more mutations until interval elapsed or batch is full
+					final long deadline = System.currentTimeMillis() + commitInterval;
+					long remaining = commitInterval;
+					while (pending.size() < commitBatch && !closed && remaining > 0) {
+						lock.wait(remaining);
+						remaining = deadline - System.currentTimeMillis();
+					}
+				} catch (InterruptedException e) {
+					Logger.warn(tag, "Committer interrupted (file={})", file);
+				}
+				if (pending.isEmpty() && closed) {
+					return;
+				}
+				batch = pending;
+				pending = new ArrayList<>();
+			}
+			// Mutations are applied before their futures are queued, thus all are
+			// included in this commit
+			try {
+				commitChanges();
+				batch.forEach(future -> future.complete(null));
+			} catch (Throwable e) {
+				Logger.warn(tag, "Commit failed (file={},mutations={})", file, batch.size(), e);
+				batch.forEach(future -> future.completeExceptionally(e));
+			}
+		}
+	}
+
+	/**
+	 * Commit mutation immediately, or queue for group commit.
+	 *
+	 * @return Future that completes when the mutation is committed.
+	 */
+	protected CompletableFuture<Void> commit() {
+		mutations.incrementAndGet();
+		if (committer == null) {
+			commitChanges();
+			return committed;
+		}
+		return sync();
+	}
+
+	@Override
+	public CompletableFuture<Void> sync() {
+		if (committer == null) {
+			return committed;
+		}
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		synchronized (lock) {
+			if (closed) {
+				future.completeExceptionally(new IllegalStateException("Closed"));
+				return future;
+			}
+			pending.add(future);
+			// Wake committer to start the interval, or to commit a full batch
+			if (pending.size() == 1 || pending.size() >= commitBatch) {
+				lock.notifyAll();
+			}
+		}
+		return future;
+	}
+
+	@Override
+	public long getMutationCount() {
+		return mutations.get();
+	}
+
+	@Override
+	public void close() {
+		if (committer != null) {
+			synchronized (lock) {
+				closed = true;
+				lock.notifyAll();
+			}
+			try {
+				committer.join();
+			} catch (InterruptedException e) {
+				Logger.warn(tag, "Interrupted while closing (file={})", file);
+			}
+		}
+		closeStore();
+	}
+}
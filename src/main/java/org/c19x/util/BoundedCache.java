@@ -0,0 +1,65 @@
+package org.c19x.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache with least recently used eviction. Each segment evicts its
+ * least recently used entry when full, see SegmentedCache.
+ *
+ * @author user
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class BoundedCache<K, V> extends SegmentedCache<K, V> {
+
+	private final static class Segment<K, V> extends SegmentedCache.Segment<K, V> {
+		private final LinkedHashMap<K, V> entries;
+
+		private Segment(final int capacity) {
+			this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<K, V> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		@Override
+		protected V get(final K key) {
+			return entries.get(key);
+		}
+
+		@Override
+		protected V peek(final K key) {
+			return entries.get(key);
+		}
+
+		@Override
+		protected void put(final K key, final V value) {
+			entries.put(key, value);
+		}
+
+		@Override
+		protected void remove(final K key) {
+			entries.remove(key);
+		}
+
+		@Override
+		protected int size() {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Create cache.
+	 *
+	 * @param capacity Maximum number of entries.
+	 */
+	public BoundedCache(final int capacity) {
+		super(capacity, Segment::new);
+	}
+}
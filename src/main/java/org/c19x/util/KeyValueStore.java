@@ -1,49 +1,161 @@
 package org.c19x.util;
 
 import java.io.File;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
-import org.mapdb.DB;
-import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
 
-public class KeyValueStore {
-	private final DB db;
-	private final ConcurrentMap<String, String> map;
+/**
+ * Persistent key value store with typed keys and values, encoded by MapDB
+ * serializers. Mutations are visible immediately and return a future that
+ * completes when the mutation is durable, for callers that require durability
+ * before replying. Keys must implement value equality.
+ *
+ * The storage engine is chosen when the store is opened, see open().
+ *
+ * @author user
+ *
+ */
+public interface KeyValueStore<K, V> {
+	// Storage engines
+	// MapDB file with write ahead log
+	public final static String mapdb = "mapdb";
+	// Append-only log with compaction, all values held in memory
+	public final static String log = "log";
+	// Memory only, nothing is persisted, for tests and benchmarks
+	public final static String memory = "memory";
 
-	public KeyValueStore(final File file) {
-		this.db = DBMaker.fileDB(file).transactionEnable().closeOnJvmShutdown().make();
-		this.map = db.hashMap("map", Serializer.STRING, Serializer.STRING).createOrOpen();
+	/**
+	 * Open store using storage engine. Each engine uses its own file name, thus
+	 * changing engine starts from an empty store rather than reading a foreign
+	 * file.
+	 *
+	 * @param engine          Storage engine, mapdb, log or memory.
+	 * @param file            Store file, the log engine uses [file].log.
+	 * @param keySerializer
+	 * @param valueSerializer
+	 * @param commitInterval  Maximum delay in milliseconds between a mutation and
+	 *                        its commit, or 0 to commit every mutation immediately.
+	 * @param commitBatch     Number of pending mutations that trigger a commit
+	 *                        before the commit interval elapses.
+	 * @return
+	 * @throws IllegalArgumentException for unknown engine.
+	 */
+	public static <K, V> KeyValueStore<K, V> open(final String engine, final File file,
+			final Serializer<K> keySerializer, final Serializer<V> valueSerializer, final long commitInterval,
+			final int commitBatch) {
+		switch (engine) {
+		case mapdb:
+			return new MapDBKeyValueStore<>(file, keySerializer, valueSerializer, commitInterval, commitBatch);
+		case log:
+			return new LogKeyValueStore<>(new File(file.getParentFile(), file.getName() + ".log"), keySerializer,
+					valueSerializer, commitInterval, commitBatch);
+		case memory:
+			return new MemoryKeyValueStore<>();
+		default:
+			throw new IllegalArgumentException("Unknown storage engine (engine=" + engine + ")");
+		}
 	}
 
-	public void put(final String key, final String value) {
-		map.put(key, value);
-		db.commit();
-	}
+	/**
+	 * Get future that completes when all mutations made so far are committed.
+	 *
+	 * @return
+	 */
+	public CompletableFuture<Void> sync();
 
-	public void remove(final String key) {
-		map.remove(key);
-		db.commit();
-	}
+	public CompletableFuture<Void> put(final K key, final V value);
 
-	public String get(final String key) {
-		return map.get(key);
-	}
+	public CompletableFuture<Void> remove(final K key);
 
-	public Set<String> keys() {
-		return map.keySet();
-	}
+	/**
+	 * Remove all keys in one commit.
+	 *
+	 * @param keys
+	 * @return Future that completes when the removals are committed.
+	 */
+	public CompletableFuture<Void> removeAll(final Collection<K> keys);
 
-	public Set<Map.Entry<String, String>> entries() {
-		return map.entrySet();
-	}
+	/**
+	 * Atomically update existing value. Use sync() to await its commit.
+	 *
+	 * @param key
+	 * @param function Maps current value to new value.
+	 * @return New value, or null if key is not present.
+	 */
+	public V update(final K key, final UnaryOperator<V> function);
 
-	public void close() {
-		if (!db.isClosed()) {
-			db.close();
-		}
+	/**
+	 * Atomically update existing values in one commit.
+	 *
+	 * @param keys
+	 * @param function Maps key and current value to new value.
+	 * @return Future that completes when the updates are committed.
+	 */
+	public CompletableFuture<Void> updateAll(final Collection<K> keys, final BiFunction<K, V, V> function);
+
+	/**
+	 * Put all entries in one commit.
+	 *
+	 * @param entries
+	 */
+	public CompletableFuture<Void> putAll(final Map<K, V> entries);
+
+	public V get(final K key);
+
+	public Set<K> keys();
+
+	public Set<Map.Entry<K, V>> entries();
+
+	/**
+	 * Read entries for as long as the reader takes. Unlike entries(), the view
+	 * remains readable until the reader returns if the store is compacted
+	 * meanwhile, thus long iterations should use read().
+	 *
+	 * @param reader Receives view of all entries.
+	 * @return Result of reader.
+	 */
+	public default <T> T read(final Function<Set<Map.Entry<K, V>>, T> reader) {
+		return reader.apply(entries());
 	}
 
+	/**
+	 * Get size of store files.
+	 *
+	 * @return Size in bytes, or 0 if not persisted.
+	 */
+	public long getFileSize();
+
+	/**
+	 * Estimate fraction of store files not used by live entries, i.e. the space
+	 * that compaction would reclaim.
+	 *
+	 * @return Ratio between 0 and 1, or 0 if not persisted.
+	 */
+	public double getFreeRatio();
+
+	/**
+	 * Rewrite store files without free space, while the store remains in use.
+	 *
+	 * @return Bytes reclaimed, or 0 if not persisted or compaction failed.
+	 */
+	public long compact();
+
+	/**
+	 * Get number of mutations since opening, for measuring write traffic.
+	 *
+	 * @return
+	 */
+	public long getMutationCount();
+
+	/**
+	 * Commit pending mutations and close store.
+	 */
+	public void close();
 }
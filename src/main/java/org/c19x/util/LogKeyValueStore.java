@@ -0,0 +1,393 @@
+package org.c19x.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+/**
+ * Key value store as an append-only log of mutations, with all values held in
+ * memory. Every mutation is a sequential write, and a commit is a flush and
+ * sync of the log tail. The log is replayed on open, and an incomplete record
+ * at the tail from a crash is truncated. Once the log holds several records
+ * per live entry, it is compacted by writing the live entries to a new log
+ * that atomically replaces the old one.
+ *
+ * Log record : length (int), CRC32 of payload (int), payload of operation
+ * (byte), key length (packed int), key, and value for put.
+ *
+ * @author user
+ *
+ */
+public class LogKeyValueStore<K, V> extends AbstractKeyValueStore<K, V> {
+	private final static String tag = LogKeyValueStore.class.getName();
+	private final static byte opPut = 1;
+	private final static byte opRemove = 2;
+	private final static int maxRecordLength = 64 * 1024 * 1024;
+	// Compact when the log holds more than this many records per live entry
+	private final static int compactionRatio = 2;
+	// Minimum number of records in log for compaction
+	private final static int compactionMinRecords = 1024;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+	private final ConcurrentMap<K, V> map = new ConcurrentHashMap<>();
+	// Log writer and number of records in log, guarded by this
+	private FileOutputStream fileOutputStream;
+	private DataOutputStream out;
+	private long records = 0;
+
+	/**
+	 * Key value store committing every mutation immediately.
+	 *
+	 * @param file
+	 * @param keySerializer
+	 * @param valueSerializer
+	 */
+	public LogKeyValueStore(final File file, final Serializer<K> keySerializer,
+			final Serializer<V> valueSerializer) {
+		this(file, keySerializer, valueSerializer, 0, 1);
+	}
+
+	/**
+	 * Key value store with group commit.
+	 *
+	 * @param file
+	 * @param keySerializer
+	 * @param valueSerializer
+	 * @param commitInterval  Maximum delay in milliseconds between a mutation and
+	 *                        its commit, or 0 to commit every mutation immediately.
+	 * @param commitBatch     Number of pending mutations that trigger a commit
+	 *                        before the commit interval elapses.
+	 * @throws UncheckedIOException if the log cannot be read or opened.
+	 */
+	public LogKeyValueStore(final File file, final Serializer<K> keySerializer, final Serializer<V> valueSerializer,
+			final long commitInterval, final int commitBatch) {
+		super(file, commitInterval, commitBatch);
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		try {
+			replay();
+			openLog();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Failed to open log (file=" + file + ")", e);
+		}
+		startCommitter();
+	}
+
+	/**
+	 * Apply all complete records in log, and truncate incomplete or corrupt
+	 * records at the tail.
+	 *
+	 * @throws IOException
+	 */
+	private void replay() throws IOException {
+		if (!file.exists()) {
+			return;
+		}
+		final long start = System.currentTimeMillis();
+		long valid = 0;
+		try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			while (true) {
+				final int length = in.readInt();
+				final int crc = in.readInt();
+				if (length < 0 || length > maxRecordLength) {
+					break;
+				}
+				final byte[] payload = new byte[length];
+				in.readFully(payload);
+				if (crc(payload, length) != crc) {
+					break;
+				}
+				apply(payload);
+				records++;
+				valid += 8 + length;
+			}
+		} catch (EOFException e) {
+			// End of log, or incomplete record at tail
+		}
+		if (valid < file.length()) {
+			Logger.warn(tag, "Truncating incomplete log (file={},length={},valid={})", file, file.length(), valid);
+			try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				channel.truncate(valid);
+			}
+		}
+		Logger.info(tag, "Replayed log (file={},records={},entries={},elapsed={}ms)", file, records, map.size(),
+				System.currentTimeMillis() - start);
+	}
+
+	private void apply(final byte[] payload) throws IOException {
+		final DataInput2.ByteArray in = new DataInput2.ByteArray(payload);
+		final byte op = in.readByte();
+		final int keyLength = in.unpackInt();
+		final K key = keySerializer.deserialize(in, keyLength);
+		if (op == opPut) {
+			map.put(key, valueSerializer.deserialize(in, payload.length - in.getPos()));
+		} else {
+			map.remove(key);
+		}
+	}
+
+	private void openLog() throws IOException {
+		fileOutputStream = new FileOutputStream(file, true);
+		out = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 64 * 1024));
+	}
+
+	private final static int crc(final byte[] data, final int length) {
+		final CRC32 crc32 = new CRC32();
+		crc32.update(data, 0, length);
+		return (int) crc32.getValue();
+	}
+
+	/**
+	 * Encode log record payload.
+	 *
+	 * @param op
+	 * @param key
+	 * @param value Value for put, ignored for remove.
+	 * @return
+	 */
+	private DataOutput2 encode(final byte op, final K key, final V value) {
+		try {
+			final DataOutput2 keyBytes = new DataOutput2();
+			keySerializer.serialize(keyBytes, key);
+			final DataOutput2 payload = new DataOutput2();
+			payload.writeByte(op);
+			payload.packInt(keyBytes.pos);
+			payload.write(keyBytes.buf, 0, keyBytes.pos);
+			if (op == opPut) {
+				valueSerializer.serialize(payload, value);
+			}
+			return payload;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Append record to log, caller must hold lock on this.
+	 *
+	 * @param out
+	 * @param payload
+	 */
+	private final static void write(final DataOutputStream out, final DataOutput2 payload) throws IOException {
+		out.writeInt(payload.pos);
+		out.writeInt(crc(payload.buf, payload.pos));
+		out.write(payload.buf, 0, payload.pos);
+	}
+
+	private void append(final DataOutput2 payload) {
+		try {
+			write(out, payload);
+			records++;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	protected synchronized void commitChanges() {
+		try {
+			out.flush();
+			fileOutputStream.getChannel().force(false);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (records > compactionMinRecords && records > (long) compactionRatio * map.size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrite log with one record per live entry. Writers wait for compaction,
+	 * readers are not blocked. The current log remains in use if compaction
+	 * fails.
+	 */
+	@Override
+	public synchronized long compact() {
+		final long start = System.currentTimeMillis();
+		final long before = records;
+		long reclaimed = 0;
+		final File compactFile = new File(file.getParentFile(), file.getName() + ".compact");
+		try {
+			try (final FileOutputStream compactOutputStream = new FileOutputStream(compactFile)) {
+				final DataOutputStream compactOut = new DataOutputStream(
+						new BufferedOutputStream(compactOutputStream, 64 * 1024));
+				for (final Map.Entry<K, V> entry : map.entrySet()) {
+					write(compactOut, encode(opPut, entry.getKey(), entry.getValue()));
+				}
+				compactOut.flush();
+				compactOutputStream.getChannel().force(false);
+			}
+			out.close();
+			reclaimed = file.length() - compactFile.length();
+			Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			records = map.size();
+			Logger.info(tag, "Compacted log (file={},before={},after={},elapsed={}ms)", file, before, records,
+					System.currentTimeMillis() - start);
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to compact log (file={})", file, e);
+			compactFile.delete();
+			reclaimed = 0;
+		}
+		try {
+			openLog();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return reclaimed;
+	}
+
+	@Override
+	public synchronized long getFileSize() {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			Logger.warn(tag, "Failed to flush log (file={})", file, e);
+		}
+		return file.length();
+	}
+
+	/**
+	 * Estimate free ratio from the number of log records per live entry.
+	 */
+	@Override
+	public synchronized double getFreeRatio() {
+		return (records == 0 ? 0 : Math.max(0, 1 - (double) map.size() / records));
+	}
+
+	@Override
+	protected synchronized void closeStore() {
+		try {
+			out.flush();
+			fileOutputStream.getChannel().force(false);
+			out.close();
+		} catch (IOException e) {
+			Logger.warn(tag, "Failed to close log (file={})", file, e);
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> put(final K key, final V value) {
+		final DataOutput2 payload = encode(opPut, key, value);
+		synchronized (this) {
+			map.put(key, value);
+			append(payload);
+		}
+		return commit();
+	}
+
+	@Override
+	public CompletableFuture<Void> remove(final K key) {
+		final DataOutput2 payload = encode(opRemove, key, null);
+		synchronized (this) {
+			if (map.remove(key) != null) {
+				append(payload);
+			}
+		}
+		return commit();
+	}
+
+	@Override
+	public CompletableFuture<Void> removeAll(final Collection<K> keys) {
+		synchronized (this) {
+			for (final K key : keys) {
+				if (map.remove(key) != null) {
+					append(encode(opRemove, key, null));
+				}
+			}
+		}
+		return commit();
+	}
+
+	/**
+	 * Update value under lock, caller must hold lock on this.
+	 */
+	private V apply(final K key, final V value, final V current) {
+		if (value == null) {
+			map.remove(key);
+			append(encode(opRemove, key, null));
+		} else if (value != current) {
+			map.put(key, value);
+			append(encode(opPut, key, value));
+		}
+		return value;
+	}
+
+	@Override
+	public V update(final K key, final UnaryOperator<V> function) {
+		final V value;
+		synchronized (this) {
+			final V current = map.get(key);
+			if (current == null) {
+				return null;
+			}
+			value = apply(key, function.apply(current), current);
+		}
+		commit();
+		return value;
+	}
+
+	@Override
+	public CompletableFuture<Void> updateAll(final Collection<K> keys, final BiFunction<K, V, V> function) {
+		synchronized (this) {
+			for (final K key : keys) {
+				final V current = map.get(key);
+				if (current != null) {
+					apply(key, function.apply(key, current), current);
+				}
+			}
+		}
+		return commit();
+	}
+
+	@Override
+	public CompletableFuture<Void> putAll(final Map<K, V> entries) {
+		synchronized (this) {
+			entries.forEach((key, value) -> {
+				map.put(key, value);
+				append(encode(opPut, key, value));
+			});
+		}
+		return commit();
+	}
+
+	@Override
+	public V get(final K key) {
+		return map.get(key);
+	}
+
+	@Override
+	public Set<K> keys() {
+		return Collections.unmodifiableSet(map.keySet());
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entries() {
+		return Collections.unmodifiableSet(map.entrySet());
+	}
+}
@@ -0,0 +1,373 @@
+package org.c19x.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+/**
+ * Key value store in a MapDB file with transactions, values are read from the
+ * file on demand.
+ *
+ * MapDB does not reuse all space freed by removals, and does not compact files
+ * with transactions, thus compaction copies live entries to [file].compact
+ * while writers continue, recording the keys they change. Writers are then
+ * blocked only while changed keys are copied again and the copy replaces the
+ * file. Readers are not blocked, and the previous file remains open for a
+ * minute, and until reads in progress with read() complete on the previous
+ * file. Its space is released once closed.
+ *
+ * @author user
+ *
+ */
+public class MapDBKeyValueStore<K, V> extends AbstractKeyValueStore<K, V> {
+	private final static String tag = MapDBKeyValueStore.class.getName();
+	// Number of entries sampled for estimating entry size before compaction
+	private final static int sampleSize = 256;
+	// Estimated storage overhead per entry in bytes
+	private final static int entryOverhead = 32;
+	private final Serializer<K> keySerializer;
+	private final Serializer<V> valueSerializer;
+	// Mutations hold the shared lock, commits and compaction hold the exclusive
+	// lock, thus a batch mutation is included in one commit and compaction
+	// replaces the file between mutations
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private volatile DB db;
+	private volatile ConcurrentMap<K, V> map;
+	// Previous file after compaction, closed by the first commit after the
+	// retire delay without reads in progress
+	private final AtomicReference<DB> retired = new AtomicReference<>();
+	// Number of reads in progress by file
+	private final Map<DB, AtomicInteger> readers = new ConcurrentHashMap<>();
+	private volatile long retiredTime = 0;
+	// Keys changed while compaction copies entries, null if not compacting
+	private volatile Set<K> changed = null;
+	// Average stored bytes per entry, measured on compaction, 0 if unknown
+	private volatile double entryBytes = 0;
+	// Minimum time in milliseconds the previous file remains open after
+	// compaction
+	protected long retireDelay = 60 * 1000;
+
+	/**
+	 * Key value store committing every mutation immediately.
+	 *
+	 * @param file
+	 * @param keySerializer
+	 * @param valueSerializer
+	 */
+	public MapDBKeyValueStore(final File file, final Serializer<K> keySerializer,
+			final Serializer<V> valueSerializer) {
+		this(file, keySerializer, valueSerializer, 0, 1);
+	}
+
+	/**
+	 * Key value store with group commit.
+	 *
+	 * @param file
+	 * @param keySerializer
+	 * @param valueSerializer
+	 * @param commitInterval  Maximum delay in milliseconds between a mutation and
+	 *                        its commit, or 0 to commit every mutation immediately.
+	 * @param commitBatch     Number of pending mutations that trigger a commit
+	 *                        before the commit interval elapses.
+	 */
+	public MapDBKeyValueStore(final File file, final Serializer<K> keySerializer,
+			final Serializer<V> valueSerializer, final long commitInterval, final int commitBatch) {
+		super(file, commitInterval, commitBatch);
+		this.keySerializer = keySerializer;
+		this.valueSerializer = valueSerializer;
+		// Incomplete compaction
+		new File(file.getParentFile(), file.getName() + ".compact").delete();
+		this.db = open(file);
+		this.map = db.hashMap("map", keySerializer, valueSerializer).createOrOpen();
+		startCommitter();
+	}
+
+	private DB open(final File file) {
+		if (isGroupCommit()) {
+			// Pending mutations are committed by close() rather than a shutdown hook
+			return DBMaker.fileDB(file).transactionEnable().make();
+		} else {
+			return DBMaker.fileDB(file).transactionEnable().closeOnJvmShutdown().make();
+		}
+	}
+
+	@Override
+	protected void commitChanges() {
+		lock.writeLock().lock();
+		try {
+			db.commit();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		if (retired.get() != null && System.currentTimeMillis() - retiredTime > retireDelay && !isRetiredRead()) {
+			closeRetired();
+		}
+	}
+
+	private boolean isRetiredRead() {
+		final DB previous = retired.get();
+		final AtomicInteger count = (previous == null ? null : readers.get(previous));
+		return count != null && count.get() > 0;
+	}
+
+	private void closeRetired() {
+		final DB previous = retired.getAndSet(null);
+		if (previous != null) {
+			readers.remove(previous);
+			if (!previous.isClosed()) {
+				previous.close();
+			}
+		}
+	}
+
+	@Override
+	protected void closeStore() {
+		lock.writeLock().lock();
+		try {
+			closeRetired();
+			if (!db.isClosed()) {
+				db.close();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Apply mutation under the shared lock, and record changed keys for
+	 * compaction in progress.
+	 *
+	 * @param keys     Changed keys.
+	 * @param mutation
+	 * @return Result of mutation.
+	 */
+	private <T> T mutate(final Collection<K> keys, final Supplier<T> mutation) {
+		lock.readLock().lock();
+		try {
+			final T result = mutation.get();
+			final Set<K> changed = this.changed;
+			if (changed != null) {
+				changed.addAll(keys);
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public long getFileSize() {
+		return file.length();
+	}
+
+	/**
+	 * Estimate free ratio from the number of entries and the average stored
+	 * bytes per entry, as measured by the last compaction or, before the first
+	 * compaction, estimated from the serialised size of a sample of entries.
+	 */
+	@Override
+	public double getFreeRatio() {
+		final long fileSize = file.length();
+		if (fileSize == 0) {
+			return 0;
+		}
+		if (entryBytes == 0) {
+			entryBytes = sampleEntryBytes();
+		}
+		return Math.max(0, 1 - map.size() * entryBytes / fileSize);
+	}
+
+	private double sampleEntryBytes() {
+		final DataOutput2 out = new DataOutput2();
+		int count = 0;
+		try {
+			for (final Map.Entry<K, V> entry : map.entrySet()) {
+				keySerializer.serialize(out, entry.getKey());
+				valueSerializer.serialize(out, entry.getValue());
+				if (++count == sampleSize) {
+					break;
+				}
+			}
+		} catch (Throwable e) {
+			Logger.warn(tag, "Failed to sample entries (file={})", file, e);
+		}
+		return (count == 0 ? entryOverhead : (double) out.pos / count + entryOverhead);
+	}
+
+	@Override
+	public long compact() {
+		final long start = System.currentTimeMillis();
+		final File compactFile = new File(file.getParentFile(), file.getName() + ".compact");
+		final long before = file.length();
+		DB compactDB = null;
+		synchronized (this) {
+			if (isRetiredRead()) {
+				Logger.info(tag, "Compaction deferred, previous file is being read (file={})", file);
+				return 0;
+			}
+			lock.writeLock().lock();
+			try {
+				changed = ConcurrentHashMap.newKeySet();
+			} finally {
+				lock.writeLock().unlock();
+			}
+			try {
+				compactFile.delete();
+				// Copy without transactions, the file is only used once complete
+				compactDB = DBMaker.fileDB(compactFile).make();
+				final ConcurrentMap<K, V> compactMap = compactDB.hashMap("map", keySerializer, valueSerializer)
+						.create();
+				for (final Map.Entry<K, V> entry : map.entrySet()) {
+					compactMap.put(entry.getKey(), entry.getValue());
+				}
+				final long entries;
+				final int changes;
+				lock.writeLock().lock();
+				try {
+					changes = changed.size();
+					for (final K key : changed) {
+						final V value = map.get(key);
+						if (value == null) {
+							compactMap.remove(key);
+						} else {
+							compactMap.put(key, value);
+						}
+					}
+					entries = compactMap.size();
+					compactDB.commit();
+					compactDB.close();
+					// Previous file holds no pending changes once committed
+					db.commit();
+					Files.move(compactFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+							StandardCopyOption.REPLACE_EXISTING);
+					closeRetired();
+					retired.set(db);
+					retiredTime = System.currentTimeMillis();
+					db = open(file);
+					map = db.hashMap("map", keySerializer, valueSerializer).createOrOpen();
+					changed = null;
+				} finally {
+					lock.writeLock().unlock();
+				}
+				final long after = file.length();
+				entryBytes = (entries == 0 ? 0 : (double) after / entries);
+				Logger.info(tag, "Compacted store (file={},entries={},changes={},before={},after={},elapsed={}ms)",
+						file, entries, changes, before, after, System.currentTimeMillis() - start);
+				return before - after;
+			} catch (Throwable e) {
+				Logger.warn(tag, "Failed to compact store (file={})", file, e);
+				changed = null;
+				if (compactDB != null && !compactDB.isClosed()) {
+					compactDB.close();
+				}
+				compactFile.delete();
+				return 0;
+			}
+		}
+	}
+
+	@Override
+	public CompletableFuture<Void> put(final K key, final V value) {
+		mutate(Collections.singleton(key), () -> map.put(key, value));
+		return commit();
+	}
+
+	@Override
+	public CompletableFuture<Void> remove(final K key) {
+		mutate(Collections.singleton(key), () -> map.remove(key));
+		return commit();
+	}
+
+	@Override
+	public CompletableFuture<Void> removeAll(final Collection<K> keys) {
+		mutate(keys, () -> {
+			for (final K key : keys) {
+				map.remove(key);
+			}
+			return null;
+		});
+		return commit();
+	}
+
+	@Override
+	public V update(final K key, final UnaryOperator<V> function) {
+		final V value = mutate(Collections.singleton(key),
+				() -> map.computeIfPresent(key, (k, v) -> function.apply(v)));
+		commit();
+		return value;
+	}
+
+	@Override
+	public CompletableFuture<Void> updateAll(final Collection<K> keys, final BiFunction<K, V, V> function) {
+		mutate(keys, () -> {
+			for (final K key : keys) {
+				map.computeIfPresent(key, function);
+			}
+			return null;
+		});
+		return commit();
+	}
+
+	@Override
+	public CompletableFuture<Void> putAll(final Map<K, V> entries) {
+		mutate(entries.keySet(), () -> {
+			map.putAll(entries);
+			return null;
+		});
+		return commit();
+	}
+
+	@Override
+	public V get(final K key) {
+		return map.get(key);
+	}
+
+	@Override
+	public Set<K> keys() {
+		return map.keySet();
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entries() {
+		return map.entrySet();
+	}
+
+	@Override
+	public <T> T read(final Function<Set<Map.Entry<K, V>>, T> reader) {
+		final ConcurrentMap<K, V> readMap;
+		final AtomicInteger count;
+		// Map and file are replaced together under the exclusive lock
+		lock.readLock().lock();
+		try {
+			readMap = map;
+			count = readers.computeIfAbsent(db, d -> new AtomicInteger());
+			count.incrementAndGet();
+		} finally {
+			lock.readLock().unlock();
+		}
+		try {
+			return reader.apply(readMap.entrySet());
+		} finally {
+			count.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.c19x.util;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * Key value store in memory only, for tests and for benchmarking without
+ * storage costs. Nothing is persisted, thus all mutations are committed
+ * immediately.
+ *
+ * @author user
+ *
+ */
+public class MemoryKeyValueStore<K, V> implements KeyValueStore<K, V> {
+	private final static CompletableFuture<Void> committed = CompletableFuture.completedFuture(null);
+	private final ConcurrentMap<K, V> map = new ConcurrentHashMap<>();
+
+	@Override
+	public CompletableFuture<Void> sync() {
+		return committed;
+	}
+
+	@Override
+	public CompletableFuture<Void> put(final K key, final V value) {
+		map.put(key, value);
+		return committed;
+	}
+
+	@Override
+	public CompletableFuture<Void> remove(final K key) {
+		map.remove(key);
+		return committed;
+	}
+
+	@Override
+	public CompletableFuture<Void> removeAll(final Collection<K> keys) {
+		for (final K key : keys) {
+			map.remove(key);
+		}
+		return committed;
+	}
+
+	@Override
+	public V update(final K key, final UnaryOperator<V> function) {
+		return map.computeIfPresent(key, (k, v) -> function.apply(v));
+	}
+
+	@Override
+	public CompletableFuture<Void> updateAll(final Collection<K> keys, final BiFunction<K, V, V> function) {
+		for (final K key : keys) {
+			map.computeIfPresent(key, function);
+		}
+		return committed;
+	}
+
+	@Override
+	public CompletableFuture<Void> putAll(final Map<K, V> entries) {
+		map.putAll(entries);
+		return committed;
+	}
+
+	@Override
+	public V get(final K key) {
+		return map.get(key);
+	}
+
+	@Override
+	public Set<K> keys() {
+		return map.keySet();
+	}
+
+	@Override
+	public Set<Map.Entry<K, V>> entries() {
+		return map.entrySet();
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public long getFileSize() {
+		return 0;
+	}
+
+	@Override
+	public double getFreeRatio() {
+		return 0;
+	}
+
+	@Override
+	public long compact() {
+		return 0;
+	}
+
+	@Override
+	public long getMutationCount() {
+		return 0;
+	}
+}
@@ -13,6 +13,14 @@ import javax.crypto.spec.SecretKeySpec;
 public class SecurityUtil {
 	private final static String tag = SecurityUtil.class.getName();
 	private static SecureRandom secureRandom = null;
+	// Cipher instances are not thread safe but can be re-initialised for reuse
+	private final static ThreadLocal<Cipher> aesCipher = ThreadLocal.withInitial(() -> {
+		try {
+			return Cipher.getInstance("AES/CBC/PKCS5PADDING");
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	});
 
 	public final static void main(String[] a) throws Throwable {
 		final byte[] key = "12345678901234561234567890123456".getBytes();
@@ -69,17 +77,37 @@ public class SecurityUtil {
 	}
 
 	public final static String decrypt(final byte[] key, final String bundle) {
-		try {
-			final String ivString = bundle.substring(0, bundle.indexOf(','));
-			final String cryptString = bundle.substring(ivString.length() + 1);
+		return decrypt(getSecretKey(key), bundle);
+	}
 
-			final IvParameterSpec ivParameterSpec = new IvParameterSpec(Base64.getUrlDecoder().decode(ivString));
-			final SecretKeySpec secretKeySpec = new SecretKeySpec(key, "AES");
+	/**
+	 * Get AES key for shared secret, for reuse across decrypt calls.
+	 *
+	 * @param key Shared secret.
+	 * @return
+	 */
+	public final static SecretKeySpec getSecretKey(final byte[] key) {
+		return new SecretKeySpec(key, "AES");
+	}
 
-			final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+	/**
+	 * Decrypt bundle using this thread's cipher instance.
+	 *
+	 * @param secretKeySpec See getSecretKey().
+	 * @param bundle        Base64 encoded IV and cipher text, separated by comma.
+	 * @return Clear text, or null on failure.
+	 */
+	public final static String decrypt(final SecretKeySpec secretKeySpec, final String bundle) {
+		try {
+			final int separator = bundle.indexOf(',');
+			final IvParameterSpec ivParameterSpec = new IvParameterSpec(
+					Base64.getUrlDecoder().decode(bundle.substring(0, separator)));
+
+			final Cipher cipher = aesCipher.get();
 			cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
 
-			final String clearText = new String(cipher.doFinal(Base64.getUrlDecoder().decode(cryptString)));
+			final String clearText = new String(
+					cipher.doFinal(Base64.getUrlDecoder().decode(bundle.substring(separator + 1))));
 			return clearText;
 		} catch (Throwable e) {
 			Logger.warn(tag, "Failed to decrypt (bundle={})", bundle, e);
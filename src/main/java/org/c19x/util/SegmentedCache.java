@@ -0,0 +1,139 @@
+package org.c19x.util;
+
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Bounded cache with entries spread over independently locked segments by key
+ * hash to limit contention. Subclasses provide the eviction policy of a
+ * segment. Values are loaded outside the segment lock, thus slow loaders only
+ * delay callers of the same key. Concurrent misses of a key may load the value
+ * more than once, the first value cached is kept. A value loaded while the
+ * segment had a removal is returned but not cached, thus a concurrent remove
+ * cannot be undone by a load of the removed value.
+ *
+ * @author user
+ *
+ * @param <K>
+ * @param <V>
+ */
+public abstract class SegmentedCache<K, V> {
+	private final static int segmentCount = 16;
+	private final Segment<K, V>[] segments;
+
+	/**
+	 * Segment of cache, all methods are called with the segment locked.
+	 */
+	protected abstract static class Segment<K, V> {
+		// Number of removals, for detecting removals during a load
+		private long removals = 0;
+
+		/**
+		 * Get value and record its use.
+		 *
+		 * @param key
+		 * @return Value, or null if not cached.
+		 */
+		protected abstract V get(final K key);
+
+		/**
+		 * Get value without counting another use, for checking whether a value was
+		 * cached during a load.
+		 *
+		 * @param key
+		 * @return Value, or null if not cached.
+		 */
+		protected abstract V peek(final K key);
+
+		/**
+		 * Cache value, evicting entries if full.
+		 *
+		 * @param key
+		 * @param value
+		 */
+		protected abstract void put(final K key, final V value);
+
+		protected abstract void remove(final K key);
+
+		protected abstract int size();
+	}
+
+	/**
+	 * Create cache.
+	 *
+	 * @param capacity Maximum number of entries.
+	 * @param segment  Creates segment for capacity of segment.
+	 */
+	@SuppressWarnings("unchecked")
+	protected SegmentedCache(final int capacity, final IntFunction<Segment<K, V>> segment) {
+		segments = new Segment[segmentCount];
+		final int segmentCapacity = Math.max(1, (capacity + segmentCount - 1) / segmentCount);
+		for (int i = 0; i < segmentCount; i++) {
+			segments[i] = segment.apply(segmentCapacity);
+		}
+	}
+
+	protected Segment<K, V> segment(final Object key) {
+		final int hash = key.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (segmentCount - 1)];
+	}
+
+	/**
+	 * Get value, loading value on miss without holding the segment lock. Values
+	 * are not cached if the loader returns null.
+	 *
+	 * @param key
+	 * @param loader
+	 * @return
+	 */
+	public V get(final K key, final Function<K, V> loader) {
+		final Segment<K, V> segment = segment(key);
+		final long removals;
+		synchronized (segment) {
+			final V value = segment.get(key);
+			if (value != null) {
+				return value;
+			}
+			removals = segment.removals;
+		}
+		final V value = loader.apply(key);
+		if (value == null) {
+			return null;
+		}
+		synchronized (segment) {
+			final V current = segment.peek(key);
+			if (current != null) {
+				return current;
+			}
+			if (segment.removals == removals) {
+				segment.put(key, value);
+			}
+		}
+		return value;
+	}
+
+	public V get(final K key) {
+		final Segment<K, V> segment = segment(key);
+		synchronized (segment) {
+			return segment.get(key);
+		}
+	}
+
+	public void remove(final K key) {
+		final Segment<K, V> segment = segment(key);
+		synchronized (segment) {
+			segment.removals++;
+			segment.remove(key);
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (final Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+}
@@ -0,0 +1,94 @@
+package org.c19x.util;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reusable SHA-256 engine for hash chains. Each thread owns a message digest
+ * and scratch buffers, and hashes are computed into caller supplied buffers,
+ * thus repeated hashing does not allocate.
+ *
+ * @author user
+ *
+ */
+public final class Sha256 {
+	public final static int length = 32;
+	private final static ThreadLocal<Sha256> instances = ThreadLocal.withInitial(() -> new Sha256());
+	private final MessageDigest messageDigest;
+	private final byte[] scratch = new byte[Long.BYTES];
+
+	private Sha256() {
+		try {
+			messageDigest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get SHA-256 engine for current thread.
+	 *
+	 * @return
+	 */
+	public final static Sha256 get() {
+		return instances.get();
+	}
+
+	/**
+	 * Hash data into buffer.
+	 *
+	 * @param data
+	 * @param hash Buffer for hash, minimum 32 bytes.
+	 * @throws DigestException
+	 */
+	public void digest(final byte[] data, final byte[] hash) throws DigestException {
+		messageDigest.reset();
+		messageDigest.update(data);
+		messageDigest.digest(hash, 0, length);
+	}
+
+	/**
+	 * Replace hash with hash of hash, i.e. advance hash chain by one step.
+	 *
+	 * @param hash 32 byte hash.
+	 * @throws DigestException
+	 */
+	public void next(final byte[] hash) throws DigestException {
+		messageDigest.reset();
+		messageDigest.update(hash, 0, length);
+		messageDigest.digest(hash, 0, length);
+	}
+
+	/**
+	 * Hash 8 bytes of long value into buffer.
+	 *
+	 * @param value
+	 * @param bigEndian Byte order of value.
+	 * @param hash      Buffer for hash, minimum 32 bytes.
+	 * @throws DigestException
+	 */
+	public void digest(final long value, final boolean bigEndian, final byte[] hash) throws DigestException {
+		for (int i = 0; i < Long.BYTES; i++) {
+			final int shift = (bigEndian ? (Long.BYTES - 1 - i) : i) * Byte.SIZE;
+			scratch[i] = (byte) (value >>> shift);
+		}
+		messageDigest.reset();
+		messageDigest.update(scratch, 0, Long.BYTES);
+		messageDigest.digest(hash, 0, length);
+	}
+
+	/**
+	 * Get first 8 bytes of hash as big endian long value.
+	 *
+	 * @param hash
+	 * @return
+	 */
+	public final static long longValue(final byte[] hash) {
+		long value = 0;
+		for (int i = 0; i < Long.BYTES; i++) {
+			value = (value << Byte.SIZE) | (hash[i] & 0xFF);
+		}
+		return value;
+	}
+}
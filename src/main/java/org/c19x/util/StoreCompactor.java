@@ -0,0 +1,169 @@
+package org.c19x.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Background compaction of key value stores while they remain in use. At every
+ * check, the free ratio and write traffic of each store are measured, and a
+ * store is compacted if its free ratio is above the threshold and it was
+ * written to less than the low traffic limit since the previous check, thus
+ * compaction runs during low traffic. Stores are compacted one at a time on
+ * the scheduler thread, and metrics of each store record the reclaimed bytes
+ * and compaction duration.
+ *
+ * @author user
+ *
+ */
+public class StoreCompactor {
+	private final static String tag = StoreCompactor.class.getName();
+	// Minimum estimated reclaimable bytes for compaction
+	private final static long minimumReclaim = 4 * 1024 * 1024;
+	private final Map<String, KeyValueStore<?, ?>> stores;
+	private final double freeRatio;
+	private final long lowTraffic;
+	private final Map<String, Long> mutationCounts = new HashMap<>();
+	// Replaced on update by the checking thread, thus metrics are read without
+	// waiting for a compaction in progress
+	private volatile Map<String, Metrics> metrics = Collections.emptyMap();
+	private final Timer timer = new Timer("StoreCompactor", true);
+	private boolean closed = false;
+
+	/**
+	 * Compaction metrics of a store.
+	 */
+	public final static class Metrics {
+		// Measurements at last check
+		public final long fileSize;
+		public final double freeRatio;
+		public final long mutations;
+		// Compactions since start
+		public final long compactions;
+		public final long reclaimedBytes;
+		public final long elapsed;
+		// Last compaction
+		public final long lastCompaction;
+		public final long lastReclaimedBytes;
+		public final long lastElapsed;
+
+		private Metrics(final long fileSize, final double freeRatio, final long mutations, final long compactions,
+				final long reclaimedBytes, final long elapsed, final long lastCompaction,
+				final long lastReclaimedBytes, final long lastElapsed) {
+			this.fileSize = fileSize;
+			this.freeRatio = freeRatio;
+			this.mutations = mutations;
+			this.compactions = compactions;
+			this.reclaimedBytes = reclaimedBytes;
+			this.elapsed = elapsed;
+			this.lastCompaction = lastCompaction;
+			this.lastReclaimedBytes = lastReclaimedBytes;
+			this.lastElapsed = lastElapsed;
+		}
+
+		private Metrics withCheck(final long fileSize, final double freeRatio, final long mutations) {
+			return new Metrics(fileSize, freeRatio, mutations, compactions, reclaimedBytes, elapsed, lastCompaction,
+					lastReclaimedBytes, lastElapsed);
+		}
+
+		private Metrics withCompaction(final long timestamp, final long reclaimedBytes, final long elapsed) {
+			return new Metrics(fileSize, freeRatio, mutations, compactions + 1, this.reclaimedBytes + reclaimedBytes,
+					this.elapsed + elapsed, timestamp, reclaimedBytes, elapsed);
+		}
+	}
+
+	/**
+	 * Compactor without schedule, see check().
+	 *
+	 * @param stores     Stores by name.
+	 * @param freeRatio  Minimum free ratio for compaction, between 0 and 1.
+	 * @param lowTraffic Maximum number of mutations since the previous check for
+	 *                   compaction.
+	 */
+	public StoreCompactor(final Map<String, KeyValueStore<?, ?>> stores, final double freeRatio,
+			final long lowTraffic) {
+		this.stores = new LinkedHashMap<>(stores);
+		this.freeRatio = freeRatio;
+		this.lowTraffic = lowTraffic;
+		final Metrics initial = new Metrics(0, 0, 0, 0, 0, 0, 0, 0, 0);
+		final Map<String, Metrics> metrics = new LinkedHashMap<>();
+		this.stores.forEach((name, store) -> {
+			mutationCounts.put(name, store.getMutationCount());
+			metrics.put(name, initial);
+		});
+		this.metrics = Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * Check stores at fixed interval.
+	 *
+	 * @param interval Interval in milliseconds.
+	 */
+	public void schedule(final long interval) {
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				check();
+			}
+		}, interval, interval);
+	}
+
+	/**
+	 * Measure all stores and compact stores with free space and low traffic.
+	 */
+	public synchronized void check() {
+		for (final Map.Entry<String, KeyValueStore<?, ?>> e : stores.entrySet()) {
+			if (closed) {
+				return;
+			}
+			final String name = e.getKey();
+			final KeyValueStore<?, ?> store = e.getValue();
+			try {
+				final long mutationCount = store.getMutationCount();
+				final long mutations = mutationCount - mutationCounts.put(name, mutationCount);
+				final long fileSize = store.getFileSize();
+				final double ratio = store.getFreeRatio();
+				setMetrics(name, metrics.get(name).withCheck(fileSize, ratio, mutations));
+				Logger.debug(tag, "Checked store (store={},fileSize={},freeRatio={},mutations={})", name, fileSize,
+						ratio, mutations);
+				if (ratio < freeRatio || fileSize * ratio < minimumReclaim || mutations > lowTraffic) {
+					continue;
+				}
+				final long start = System.currentTimeMillis();
+				final long reclaimed = store.compact();
+				final long elapsed = System.currentTimeMillis() - start;
+				setMetrics(name, metrics.get(name).withCompaction(start, reclaimed, elapsed));
+				Logger.info(tag, "Compacted store (store={},freeRatio={},reclaimed={},elapsed={}ms)", name, ratio,
+						reclaimed, elapsed);
+			} catch (Throwable t) {
+				Logger.warn(tag, "Failed to check store (store={})", name, t);
+			}
+		}
+	}
+
+	private void setMetrics(final String name, final Metrics storeMetrics) {
+		final Map<String, Metrics> metrics = new LinkedHashMap<>(this.metrics);
+		metrics.put(name, storeMetrics);
+		this.metrics = Collections.unmodifiableMap(metrics);
+	}
+
+	/**
+	 * Get metrics of all stores, without waiting for a compaction in progress.
+	 *
+	 * @return Metrics by store name.
+	 */
+	public Map<String, Metrics> getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Stop checks, waiting for a compaction in progress to complete.
+	 */
+	public synchronized void close() {
+		timer.cancel();
+		closed = true;
+	}
+}
@@ -0,0 +1,253 @@
+package org.c19x.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache with frequency based admission, after W-TinyLFU. New entries
+ * enter a small window of recently used entries. An entry leaving the window is
+ * only admitted to the main region if it is used more frequently than the
+ * entry it would evict, according to a compact frequency sketch, thus a scan
+ * of many entries used once does not flush frequently used entries. The main
+ * region is a segmented least recently used list, with entries promoted from
+ * probation to protected on reuse. Pinned entries are retained regardless of
+ * capacity until unpinned. Each segment applies the policy to its share of
+ * entries, see SegmentedCache.
+ *
+ * @author user
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class TinyLfuCache<K, V> extends SegmentedCache<K, V> {
+
+	/**
+	 * Count-min sketch of access frequency with 4 bit counters, halved once the
+	 * number of accesses reaches ten times the capacity, thus the sketch favours
+	 * recent frequency.
+	 */
+	private final static class Sketch {
+		private final static long[] seeds = { 0xc3a5c85c97cb3127l, 0xb492b66fbe98f273l, 0x9ae16a3b2f90404fl,
+				0xcbf29ce484222325l };
+		private final byte[] counters;
+		private final int mask;
+		private final int sampleSize;
+		private int samples = 0;
+
+		private Sketch(final int capacity) {
+			int width = 16;
+			while (width < capacity) {
+				width <<= 1;
+			}
+			this.counters = new byte[width * seeds.length];
+			this.mask = width - 1;
+			this.sampleSize = 10 * Math.max(1, capacity);
+		}
+
+		private int index(final int hash, final int row) {
+			final long h = (hash + seeds[row]) * seeds[row];
+			return row * (mask + 1) + ((int) (h >>> 32) & mask);
+		}
+
+		private void increment(final Object key) {
+			final int hash = key.hashCode();
+			for (int row = 0; row < seeds.length; row++) {
+				final int index = index(hash, row);
+				if (counters[index] < 15) {
+					counters[index]++;
+				}
+			}
+			if (++samples >= sampleSize) {
+				for (int i = 0; i < counters.length; i++) {
+					counters[i] >>= 1;
+				}
+				samples /= 2;
+			}
+		}
+
+		private int frequency(final Object key) {
+			final int hash = key.hashCode();
+			int frequency = 15;
+			for (int row = 0; row < seeds.length; row++) {
+				frequency = Math.min(frequency, counters[index(hash, row)]);
+			}
+			return frequency;
+		}
+	}
+
+	private final static class Segment<K, V> extends SegmentedCache.Segment<K, V> {
+		private final int windowCapacity;
+		private final int mainCapacity;
+		private final int protectedCapacity;
+		private final Sketch sketch;
+		private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+		private final LinkedHashMap<K, V> protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+		private final Map<K, V> pinned = new HashMap<>();
+		private final Set<K> pinnedKeys = new HashSet<>();
+
+		private Segment(final int capacity) {
+			this.windowCapacity = Math.max(1, capacity / 100);
+			this.mainCapacity = Math.max(1, capacity - windowCapacity);
+			this.protectedCapacity = mainCapacity * 4 / 5;
+			this.sketch = new Sketch(capacity);
+		}
+
+		@Override
+		protected V get(final K key) {
+			sketch.increment(key);
+			V value = pinned.get(key);
+			if (value == null) {
+				value = window.get(key);
+			}
+			if (value == null) {
+				value = protectedEntries.get(key);
+			}
+			if (value == null) {
+				value = probation.remove(key);
+				if (value != null) {
+					// Promote on reuse, demoting least recently used protected entry
+					protectedEntries.put(key, value);
+					if (protectedEntries.size() > protectedCapacity) {
+						final Map.Entry<K, V> eldest = eldest(protectedEntries);
+						protectedEntries.remove(eldest.getKey());
+						probation.put(eldest.getKey(), eldest.getValue());
+					}
+				}
+			}
+			return value;
+		}
+
+		@Override
+		protected V peek(final K key) {
+			V value = pinned.get(key);
+			if (value == null) {
+				value = window.get(key);
+			}
+			if (value == null) {
+				value = protectedEntries.get(key);
+			}
+			if (value == null) {
+				value = probation.get(key);
+			}
+			return value;
+		}
+
+		@Override
+		protected void put(final K key, final V value) {
+			if (pinnedKeys.contains(key)) {
+				pinned.put(key, value);
+				return;
+			}
+			window.put(key, value);
+			if (window.size() > windowCapacity) {
+				final Map.Entry<K, V> candidate = eldest(window);
+				window.remove(candidate.getKey());
+				admit(candidate.getKey(), candidate.getValue());
+			}
+		}
+
+		/**
+		 * Admit entry leaving window to main region if it is used more frequently
+		 * than the entry it would evict.
+		 */
+		private void admit(final K key, final V value) {
+			if (probation.size() + protectedEntries.size() < mainCapacity) {
+				probation.put(key, value);
+				return;
+			}
+			final LinkedHashMap<K, V> victims = (probation.isEmpty() ? protectedEntries : probation);
+			final K victim = eldest(victims).getKey();
+			if (sketch.frequency(key) > sketch.frequency(victim)) {
+				victims.remove(victim);
+				probation.put(key, value);
+			}
+		}
+
+		@Override
+		protected void remove(final K key) {
+			pinnedKeys.remove(key);
+			take(key);
+		}
+
+		private V take(final K key) {
+			V value = pinned.remove(key);
+			if (value == null) {
+				value = window.remove(key);
+			}
+			if (value == null) {
+				value = probation.remove(key);
+			}
+			if (value == null) {
+				value = protectedEntries.remove(key);
+			}
+			return value;
+		}
+
+		@Override
+		protected int size() {
+			return pinned.size() + window.size() + probation.size() + protectedEntries.size();
+		}
+
+		private final static <K, V> Map.Entry<K, V> eldest(final LinkedHashMap<K, V> map) {
+			final Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+			return iterator.next();
+		}
+	}
+
+	/**
+	 * Create cache.
+	 *
+	 * @param capacity Maximum number of entries, excluding pinned entries.
+	 */
+	public TinyLfuCache(final int capacity) {
+		super(capacity, Segment::new);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Segment<K, V> segmentOf(final K key) {
+		return (Segment<K, V>) segment(key);
+	}
+
+	/**
+	 * Retain entry regardless of capacity until unpinned. The value is loaded on
+	 * next use if not cached.
+	 *
+	 * @param key
+	 */
+	public void pin(final K key) {
+		final Segment<K, V> segment = segmentOf(key);
+		synchronized (segment) {
+			if (segment.pinnedKeys.add(key)) {
+				final V value = segment.take(key);
+				if (value != null) {
+					segment.pinned.put(key, value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return pinned entry to the bounded cache.
+	 *
+	 * @param key
+	 * @return True if entry was pinned.
+	 */
+	public boolean unpin(final K key) {
+		final Segment<K, V> segment = segmentOf(key);
+		synchronized (segment) {
+			if (!segment.pinnedKeys.remove(key)) {
+				return false;
+			}
+			final V value = segment.pinned.remove(key);
+			if (value != null) {
+				segment.put(key, value);
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BinaryInfectionDataTest {
+
+	@Test
+	public void encodeDecode() {
+		final Map<String, long[]> seeds = new HashMap<>();
+		seeds.put("1", new long[] { 7525003092670007258l, Long.MAX_VALUE, Long.MIN_VALUE, -1, 0, 1, -1 });
+		seeds.put("2", new long[] { -6483623051771494729l });
+		seeds.put("invalid", new long[] { 1 });
+		final byte[] data = BinaryInfectionData.encode(seeds);
+		final Map<String, long[]> decoded = BinaryInfectionData.decode(data);
+		assertEquals(2, decoded.size());
+		assertArrayEquals(new long[] { Long.MIN_VALUE, -1, 0, 1, 7525003092670007258l, Long.MAX_VALUE },
+				decoded.get("1"));
+		assertArrayEquals(new long[] { -6483623051771494729l }, decoded.get("2"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void malformed() {
+		final byte[] data = BinaryInfectionData.encode(Map.of("2", new long[] { -6483623051771494729l }));
+		BinaryInfectionData.decode(Arrays.copyOf(data, data.length - 1));
+	}
+}
@@ -0,0 +1,85 @@
+package org.c19x.server.data;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Day code generation and beacon code seed derivation using the thread local
+ * SHA-256 engine, compared with allocating a message digest and buffers per
+ * call and per hash (legacy).
+ *
+ * Run with : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.c19x.server.data.DayCodesBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DayCodesBenchmark {
+	private final byte[] sharedSecret = new byte[32];
+	private final long[] dayCodes = DayCodes.dayCodes(sharedSecret, 14);
+
+	@Benchmark
+	public long[] dayCodes() {
+		return DayCodes.dayCodes(sharedSecret, DayCodes.days);
+	}
+
+	@Benchmark
+	public long[] dayCodesLegacy() throws Exception {
+		return legacyDayCodes(sharedSecret, DayCodes.days);
+	}
+
+	@Benchmark
+	public long[] beaconCodeSeeds() {
+		return DayCodes.getBeaconCodeSeeds(dayCodes, 0, dayCodes.length);
+	}
+
+	@Benchmark
+	public long[] beaconCodeSeedsLegacy() throws Exception {
+		final long[] codes = dayCodes.clone();
+		for (int i = codes.length; i-- > 0;) {
+			codes[i] = legacyBeaconCodeSeed(codes[i]);
+		}
+		return codes;
+	}
+
+	private final static long[] legacyDayCodes(final byte[] sharedSecret, final int count) throws Exception {
+		final long[] codes = new long[count];
+		final MessageDigest sha = MessageDigest.getInstance("SHA-256");
+		byte[] hash = sha.digest(sharedSecret);
+		for (int i = codes.length; i-- > 0;) {
+			codes[i] = ByteBuffer.wrap(hash).getLong(0);
+			sha.reset();
+			hash = sha.digest(hash);
+		}
+		return codes;
+	}
+
+	private final static long legacyBeaconCodeSeed(final long dayCode) throws Exception {
+		final ByteBuffer byteBuffer = ByteBuffer.allocate(Long.BYTES);
+		byteBuffer.putLong(0, dayCode);
+		final byte[] data = byteBuffer.array();
+		final byte[] reversed = new byte[] { data[7], data[6], data[5], data[4], data[3], data[2], data[1], data[0] };
+		final MessageDigest sha = MessageDigest.getInstance("SHA-256");
+		return ByteBuffer.wrap(sha.digest(reversed)).getLong(0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(DayCodesBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,76 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+public class DayCodesCacheTest {
+
+	@Test
+	public void putGet() throws Exception {
+		final File file = File.createTempFile("dayCodes", ".cache");
+		file.deleteOnExit();
+		final byte[] sharedSecret = new byte[] { 0 };
+		final DayCodes dayCodes = new DayCodes(sharedSecret, 16);
+		final DayCodesCache cache = new DayCodesCache(file, 16);
+		assertFalse(cache.isComplete());
+		assertNull(cache.get(1, sharedSecret));
+		cache.put(0, sharedSecret, dayCodes);
+		cache.put(1, sharedSecret, dayCodes);
+		cache.put(100000, sharedSecret, dayCodes);
+		assertArrayEquals(dayCodes.getDayCodes(0, 200), cache.get(1, sharedSecret).getDayCodes(0, 200));
+		assertArrayEquals(dayCodes.getDayCodes(0, 200), cache.get(100000, sharedSecret).getDayCodes(0, 200));
+		cache.remove(100000);
+		assertNull(cache.get(100000, sharedSecret));
+		// Serial number 0 is removable
+		assertArrayEquals(dayCodes.getDayCodes(0, 200), cache.get(0, sharedSecret).getDayCodes(0, 200));
+		cache.remove(0);
+		assertNull(cache.get(0, sharedSecret));
+		// Record of another shared secret is not served
+		assertNull(cache.get(1, new byte[] { 1 }));
+		cache.close();
+
+		// Incomplete cache remains incomplete after restart
+		final DayCodesCache reopened = new DayCodesCache(file, 16);
+		assertFalse(reopened.isComplete());
+		assertArrayEquals(dayCodes.getDayCodes(0, 200), reopened.get(1, sharedSecret).getDayCodes(0, 200));
+		reopened.setComplete();
+		reopened.close();
+		final DayCodesCache complete = new DayCodesCache(file, 16);
+		assertTrue(complete.isComplete());
+		complete.close();
+
+		// Different checkpoint interval discards cache
+		final DayCodesCache stale = new DayCodesCache(file, 64);
+		assertFalse(stale.isComplete());
+		assertNull(stale.get(1, sharedSecret));
+		stale.close();
+	}
+
+	@Test
+	public void corruptRecord() throws Exception {
+		final File file = File.createTempFile("dayCodes", ".cache");
+		file.deleteOnExit();
+		final DayCodesCache cache = new DayCodesCache(file, 64);
+		cache.put(2, new byte[] { 0 }, new DayCodes(new byte[] { 0 }, 64));
+		cache.close();
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			// Flip last checkpoint byte of record 2
+			final int recordSize = 20 + DayCodes.checkpointsLength(64);
+			final long offset = 64 + 3 * recordSize - 1;
+			randomAccessFile.seek(offset);
+			final int value = randomAccessFile.read();
+			randomAccessFile.seek(offset);
+			randomAccessFile.write(value ^ 0xFF);
+		}
+		final DayCodesCache corrupt = new DayCodesCache(file, 64);
+		assertNull(corrupt.get(2, new byte[] { 0 }));
+		corrupt.close();
+	}
+}
@@ -1,5 +1,6 @@
 package org.c19x.server.data;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.File;
@@ -74,6 +75,23 @@ public class DayCodesTest {
 				+ ", beaconCodes=" + Arrays.toString(DayCodes.beaconCodes(todayBeaconCodeSeeds[0], 2)));
 	}
 
+	@Test
+	public void checkpoints() {
+		final byte[] secret = new byte[] { 0 };
+		final int count = 365 * 5;
+		final long[] dayCodes = DayCodes.dayCodes(secret, count);
+		for (final int interval : new int[] { 1, 7, 64, count, count + 1 }) {
+			final byte[] checkpoints = DayCodes.checkpoints(secret, count, interval);
+			assertArrayEquals(dayCodes, DayCodes.dayCodes(checkpoints, count, interval, 0, count));
+			assertArrayEquals(DayCodes.getDayCodes(dayCodes, 140, 154),
+					DayCodes.dayCodes(checkpoints, count, interval, 140, 154));
+			assertEquals(0, DayCodes.dayCodes(checkpoints, count, interval, 153, 153).length);
+		}
+		final DayCodes deviceDayCodes = new DayCodes(secret, 16);
+		assertEquals(-7760134536738241307l, deviceDayCodes.getDayCodes(153, 154)[0]);
+		assertEquals(-6483623051771494729l, deviceDayCodes.getBeaconCodeSeeds(153, 154)[0]);
+	}
+
 	@Test
 	public void getDayCodes() {
 		assertEquals(0, DayCodes.getDayCodes(new long[] { 0, 1, 2 }, 0, 0).length);
@@ -0,0 +1,34 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import org.junit.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+public class DeviceRecordSerializerTest {
+
+	private final static DeviceRecord roundTrip(final DeviceRecord record) throws IOException {
+		final DataOutput2 out = new DataOutput2();
+		DeviceRecordSerializer.instance.serialize(out, record);
+		return DeviceRecordSerializer.instance.deserialize(new DataInput2.ByteArray(out.copyBytes()), -1);
+	}
+
+	@Test
+	public void serialize() throws IOException {
+		final byte[] sharedSecret = new byte[32];
+		sharedSecret[31] = 1;
+		final DeviceRecord registered = new DeviceRecord(sharedSecret);
+		assertEquals(registered, roundTrip(registered));
+		final DeviceRecord reported = new DeviceRecord(sharedSecret, "2", 1591234567890l, "pattern", "message",
+				1591228800000l);
+		assertEquals(reported, roundTrip(reported));
+		// Non-numeric status is stored as text
+		final DeviceRecord text = reported.withStatus("02", 1);
+		assertEquals(text, roundTrip(text));
+		assertEquals(reported.withStatus("x", 1), roundTrip(reported.withStatus("x", 1)));
+		assertEquals(reported.withStatus("255", 1), roundTrip(reported.withStatus("255", 1)));
+	}
+}
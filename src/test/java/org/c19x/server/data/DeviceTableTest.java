@@ -0,0 +1,88 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class DeviceTableTest {
+
+	@Test
+	public void slots() throws IOException {
+		final File file = File.createTempFile("deviceTable", ".bin");
+		final DeviceTable table = new DeviceTable(file);
+		assertFalse(table.isRegistered(1));
+		assertNull(table.getSharedSecret(1));
+		assertEquals(DeviceTable.notReported, table.getStatus(1));
+		assertFalse(table.isRegistered(-1));
+
+		table.set(1, new DeviceRecord(new byte[] { 1, 2, 3 }));
+		table.set(2, new DeviceRecord(new byte[] { 4 }, "2", 1591234567890l, null, null, 0));
+		table.set(70000, new DeviceRecord(new byte[] { 5 }, "pending", 1591234567890l, null, null, 0));
+		table.set(70001, new DeviceRecord(new byte[33]));
+		assertTrue(table.isRegistered(1));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, table.getSharedSecret(1));
+		assertEquals(DeviceTable.notReported, table.getStatus(1));
+		assertEquals(2, table.getStatus(2));
+		assertEquals(1591234567890l, table.getStatusTimestamp(2));
+		// Status text and long shared secrets are only held in the record
+		assertEquals(DeviceTable.statusText, table.getStatus(70000));
+		assertTrue(table.isRegistered(70001));
+		assertNull(table.getSharedSecret(70001));
+
+		final List<String> slots = new ArrayList<>();
+		table.forEachSlot((serialNumber, status) -> {
+			if (status != DeviceTable.unregistered) {
+				slots.add(serialNumber + ":" + status);
+			}
+		});
+		assertEquals(List.of("1:-1", "2:2", "70000:-2", "70001:-1"), slots);
+
+		assertTrue(table.compareAndSetLastSeen(2, 0, 100));
+		table.remove(2);
+		assertFalse(table.isRegistered(2));
+		assertEquals(0, table.getLastSeen(2));
+		final List<Long> serialNumbers = new ArrayList<>();
+		table.forEach(serialNumber -> serialNumbers.add(serialNumber));
+		assertEquals(List.of(1l, 70000l, 70001l), serialNumbers);
+		table.close();
+		file.delete();
+	}
+
+	@Test
+	public void concurrentSet() throws Exception {
+		final DeviceTable table = new DeviceTable();
+		final DeviceRecord[] records = { new DeviceRecord(new byte[] { 1, 1, 1 }),
+				new DeviceRecord(new byte[] { 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2 }) };
+		table.set(1, records[0]);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final Thread writer = new Thread(() -> {
+			for (int i = 0; running.get(); i++) {
+				table.set(1, records[i & 1]);
+			}
+		});
+		writer.start();
+		try {
+			// Readers never see the length of one secret with the bytes of another
+			for (int i = 0; i < 1000000; i++) {
+				final byte[] sharedSecret = table.getSharedSecret(1);
+				final byte expected = (byte) (sharedSecret.length == 3 ? 1 : 2);
+				for (final byte b : sharedSecret) {
+					assertEquals(expected, b);
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+}
@@ -0,0 +1,385 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+
+import org.c19x.util.KeyValueStore;
+import org.c19x.util.MapDBKeyValueStore;
+import org.junit.Test;
+import org.mapdb.Serializer;
+
+public class DevicesTest {
+
+	private final static File folder() throws IOException {
+		return Files.createTempDirectory("devices").toFile();
+	}
+
+	@Test
+	public void record() throws IOException {
+		final Devices devices = new Devices(folder());
+		devices.register("1", new byte[] { 1, 2, 3 });
+		devices.setStatus("1", "2", "pattern");
+		devices.setMessage("1", "message");
+		devices.touch("1");
+		// Activity is persisted on flush
+		assertEquals(0, devices.getRecord("1").lastSeen);
+		devices.flush();
+		final DeviceRecord record = devices.getRecord("1");
+		assertArrayEquals(new byte[] { 1, 2, 3 }, record.sharedSecret);
+		assertEquals("2", record.status);
+		assertEquals("pattern", record.pattern);
+		assertEquals("message", record.message);
+		assertTrue(record.lastSeen > 0);
+		assertEquals(1, devices.getReports("2", 0).size());
+
+		// Updates do not register devices
+		devices.setStatus("2", "1");
+		assertNull(devices.getRecord("2"));
+		assertEquals("0", devices.getStatus("2"));
+
+		assertArrayEquals(new byte[] { 1, 2, 3 }, devices.getSecretKey("1").getEncoded());
+		devices.unregister("1");
+		assertNull(devices.getSharedSecret("1"));
+		assertNull(devices.getSecretKey("1"));
+		assertTrue(devices.getReports("2", 0).isEmpty());
+		devices.close();
+	}
+
+	@Test
+	public void concurrentUpdates() throws Exception {
+		final Devices devices = new Devices(folder());
+		devices.register("1", new byte[] { 1, 2, 3 });
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		final List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final String status = Integer.toString(t + 1);
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < 200; i++) {
+					devices.setStatus("1", status);
+				}
+			}));
+		}
+		for (final Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		// Device table and status index follow the record store
+		final DeviceRecord record = devices.getRecord("1");
+		assertEquals(record.status, devices.getStatus("1"));
+		assertEquals(record.statusTimestamp, devices.getStatusTimestamp("1"));
+		assertEquals(1, devices.getReports(record.status, 0).size());
+		devices.close();
+	}
+
+	@Test
+	public void unpinExpired() throws Exception {
+		final Devices devices = new Devices(folder());
+		devices.register("1", new byte[] { 1, 2, 3 });
+		devices.register("2", new byte[] { 4, 5, 6 });
+		devices.setStatus("1", "2");
+		devices.setStatus("2", "1");
+		final Parameters parameters = new Parameters();
+		// Current reports remain pinned
+		assertEquals(0, devices.unpinExpired(parameters));
+		Thread.sleep(10);
+		// Confirmed diagnosis report expired
+		parameters.expireConfirmedDiagnosis = 0;
+		assertEquals(1, devices.unpinExpired(parameters));
+		assertEquals(0, devices.unpinExpired(parameters));
+		assertNotNull(devices.getCodes("1"));
+		// New report is pinned again
+		devices.setStatus("1", "1");
+		parameters.expireSymptomatic = 0;
+		Thread.sleep(10);
+		assertEquals(2, devices.unpinExpired(parameters));
+		devices.close();
+	}
+
+	@Test
+	public void flushOnCloseOnly() throws IOException {
+		final File folder = folder();
+		final Parameters parameters = new Parameters();
+		parameters.lastSeenFlush = 0;
+		final Devices devices = new Devices(folder, parameters);
+		devices.register("1", new byte[] { 1, 2, 3 });
+		devices.touch("1");
+		devices.close();
+		final Devices reopened = new Devices(folder, parameters);
+		assertTrue(reopened.getRecord("1").lastSeen > 0);
+		reopened.close();
+	}
+
+	@Test
+	public void serialNumber() throws IOException {
+		final File folder = folder();
+		final Devices devices = new Devices(folder);
+		assertEquals("1", devices.getSerialNumber());
+		final Set<String> serialNumbers = ConcurrentHashMap.newKeySet();
+		IntStream.range(0, 5000).parallel().forEach(i -> serialNumbers.add(devices.register().split(",")[0]));
+		assertEquals(5000, serialNumbers.size());
+		assertEquals(5000, devices.getSerialNumbers().size());
+		devices.close();
+
+		// Restart continues after reserved block
+		final Devices restarted = new Devices(folder);
+		final long serialNumber = Long.parseLong(restarted.getSerialNumber());
+		assertTrue(serialNumber > 5001);
+		assertFalse(serialNumbers.contains(Long.toString(serialNumber)));
+		restarted.close();
+	}
+
+	@Test
+	public void clear() throws IOException {
+		final File folder = folder();
+		Devices devices = new Devices(folder);
+		devices.register("1", new byte[] { 1 });
+		devices.register("2", new byte[] { 2 });
+		devices.register("3", new byte[] { 3 });
+		devices.touch("1");
+		devices.touch("2");
+		devices.close();
+
+		// Last seen is restored on restart
+		devices = new Devices(folder);
+		devices.clear(1);
+		assertEquals(3, devices.getSerialNumbers().size());
+		// Negative retention expires devices seen today, but not devices never seen
+		devices.clear(-1);
+		assertEquals(1, devices.getSerialNumbers().size());
+		assertTrue(devices.getSerialNumbers().contains("3"));
+		devices.close();
+	}
+
+	@Test
+	public void migrate() throws IOException {
+		final File folder = folder();
+		final KeyValueStore<String, String> registrations = new MapDBKeyValueStore<>(new File(folder, "registrations"),
+				Serializer.STRING, Serializer.STRING);
+		registrations.put("1", "AQID");
+		registrations.put("2", "BAUG");
+		registrations.close();
+		final KeyValueStore<String, String> statuses = new MapDBKeyValueStore<>(new File(folder, "statuses"),
+				Serializer.STRING, Serializer.STRING);
+		statuses.put("1", "2,1591234567890");
+		// Status without registration is discarded
+		statuses.put("3", "1,1591234567890");
+		statuses.close();
+		final KeyValueStore<String, String> patterns = new MapDBKeyValueStore<>(new File(folder, "patterns"),
+				Serializer.STRING, Serializer.STRING);
+		patterns.put("2", "pattern");
+		patterns.close();
+		final KeyValueStore<String, String> timestamps = new MapDBKeyValueStore<>(new File(folder, "timestamps"),
+				Serializer.STRING, Serializer.STRING);
+		timestamps.put("2", "1591234567000");
+		timestamps.close();
+
+		final Devices devices = new Devices(folder);
+		assertEquals(2, devices.getSerialNumbers().size());
+		assertEquals("2", devices.getStatus("1"));
+		assertEquals(1591234567890l, devices.getStatusTimestamp("1"));
+		assertEquals(1, devices.getReports("2", 0).size());
+		assertArrayEquals(new byte[] { 4, 5, 6 }, devices.getSharedSecret("2"));
+		assertEquals("pattern", devices.getPattern("2"));
+		assertEquals(1591234567000l, devices.getRecord("2").lastSeen);
+		assertNull(devices.getRecord("3"));
+		devices.close();
+
+		assertFalse(new File(folder, "registrations").exists());
+		assertTrue(new File(folder, "registrations.migrated").exists());
+		assertTrue(new File(folder, "statuses.migrated").exists());
+	}
+
+	@Test
+	public void migrateToEngine() throws IOException {
+		for (final boolean serialNumber : new boolean[] { true, false }) {
+			final File folder = folder();
+			final KeyValueStore<String, String> registrations = new MapDBKeyValueStore<>(
+					new File(folder, "registrations"), Serializer.STRING, Serializer.STRING);
+			registrations.put("1", "AQID");
+			registrations.put("2", "BAUG");
+			registrations.close();
+			if (serialNumber) {
+				// Earlier versions stored the last issued serial number
+				final KeyValueStore<String, String> parameters = new MapDBKeyValueStore<>(
+						new File(folder, "parameters"), Serializer.STRING, Serializer.STRING);
+				parameters.put("serialNumber", "2");
+				parameters.close();
+			}
+
+			final Parameters parameters = new Parameters();
+			parameters.storageEngine = KeyValueStore.log;
+			final Devices devices = new Devices(folder, parameters);
+			assertEquals(Set.of("1", "2"), devices.getSerialNumbers());
+			// New registration does not reuse migrated serial numbers
+			final String registered = devices.register().split(",")[0];
+			assertTrue(Long.parseLong(registered) > 2);
+			assertArrayEquals(new byte[] { 1, 2, 3 }, devices.getSharedSecret("1"));
+			devices.close();
+			assertEquals(serialNumber, new File(folder, "parameters.migrated").exists());
+
+			final Devices reopened = new Devices(folder, parameters);
+			assertEquals(Set.of("1", "2", registered), reopened.getSerialNumbers());
+			assertTrue(Long.parseLong(reopened.register().split(",")[0]) > Long.parseLong(registered));
+			reopened.close();
+		}
+	}
+
+	@Test
+	public void migrateRecords() throws IOException {
+		final File folder = folder();
+		final KeyValueStore<String, String> records = new MapDBKeyValueStore<>(new File(folder, "devices"),
+				Serializer.STRING, Serializer.STRING);
+		records.put("7", new DeviceRecord(new byte[] { 7 }, "1", 1591234567890l, null, "message", 0).toJSON());
+		records.close();
+
+		final Devices devices = new Devices(folder);
+		assertEquals("1", devices.getStatus("7"));
+		assertEquals("message", devices.getMessage("7"));
+		assertEquals(1, devices.getReports("1", 0).size());
+		assertNull(devices.getRecord("invalid"));
+		devices.close();
+		assertTrue(new File(folder, "devices.migrated").exists());
+	}
+
+	@Test
+	public void snapshot() throws IOException {
+		final Devices devices = new Devices(folder());
+		devices.register("1", new byte[] { 1 });
+		devices.register("2", new byte[] { 2 });
+		devices.setStatus("1", "1").join();
+		devices.setMessage("2", "before");
+
+		final Devices.Snapshot snapshot = devices.snapshot();
+		devices.setStatus("1", "2").join();
+		devices.setStatus("2", "1").join();
+		devices.setMessage("2", "after");
+		devices.unregister("1");
+		devices.register("3", new byte[] { 3 });
+		assertEquals(Set.of("1", "2"), snapshot.getSerialNumbers());
+		assertEquals("1", snapshot.getStatus("1"));
+		assertEquals("0", snapshot.getStatus("2"));
+		assertEquals("before", snapshot.getMessage("2"));
+		assertNull(snapshot.getRecord("3"));
+		assertEquals(Map.of("0", 1l, "1", 1l), snapshot.getStatusCounts());
+		assertEquals(1, snapshot.getReports("1", 0).size());
+		assertEquals("1", snapshot.getReports("1", 0).first().serialNumber);
+		assertTrue(snapshot.getReports("2", 0).isEmpty());
+		// Unregistered device remains available to snapshot
+		assertArrayEquals(new DayCodes(new byte[] { 1 }).getCheckpoints(), snapshot.getCodes("1").getCheckpoints());
+		snapshot.close();
+
+		final Devices.Snapshot current = devices.snapshot();
+		assertEquals(Set.of("2", "3"), current.getSerialNumbers());
+		assertEquals("1", current.getStatus("2"));
+		assertEquals("after", current.getMessage("2"));
+		assertEquals(Map.of("0", 1l, "1", 1l), current.getStatusCounts());
+		current.close();
+		devices.close();
+	}
+
+	@Test
+	public void backup() throws IOException {
+		final Devices devices = new Devices(folder());
+		final String serialNumber = devices.register().split(",")[0];
+		devices.register("100", new byte[] { 1 });
+		devices.register("101", new byte[] { 2 });
+		devices.setStatus("100", "2", "pattern").join();
+		devices.setMessage("101", "message");
+		final File archive = devices.backup();
+		assertTrue(archive.exists());
+		assertFalse(new File(archive.getParentFile(), archive.getName() + ".tmp").exists());
+
+		final File folder = folder();
+		assertEquals(3, Devices.restore(archive, folder, new Parameters()));
+		final Devices restored = new Devices(folder);
+		assertEquals(Set.of(serialNumber, "100", "101"), restored.getSerialNumbers());
+		assertEquals(devices.getRecord("100"), restored.getRecord("100"));
+		assertEquals(devices.getRecord("101"), restored.getRecord("101"));
+		assertEquals(1, restored.getReports("2", 0).size());
+		// Serial numbers issued before backup are not issued again
+		assertTrue(Long.parseLong(restored.getSerialNumber()) > Long.parseLong(serialNumber));
+		restored.close();
+
+		// Restore requires folder without device stores
+		try {
+			Devices.restore(archive, folder, new Parameters());
+			assertTrue(false);
+		} catch (IOException e) {
+		}
+		final File legacyFolder = folder();
+		new File(legacyFolder, "registrations").createNewFile();
+		try {
+			Devices.restore(archive, legacyFolder, new Parameters());
+			assertTrue(false);
+		} catch (IOException e) {
+		}
+
+		// Day codes of another database are not used
+		final File reusedFolder = folder();
+		final Devices other = new Devices(reusedFolder);
+		other.register("100", new byte[] { 9 });
+		other.close();
+		for (final File file : reusedFolder.listFiles(
+				(dir, name) -> name.startsWith("records") || name.startsWith("parameters"))) {
+			file.delete();
+		}
+		Devices.restore(archive, reusedFolder, new Parameters());
+		final Devices reused = new Devices(reusedFolder);
+		assertArrayEquals(new DayCodes(new byte[] { 1 }).getCheckpoints(), reused.getCodes("100").getCheckpoints());
+		reused.close();
+
+		// Incomplete archive leaves no device stores, thus restore can be repeated
+		final File truncated = new File(archive.getParentFile(), archive.getName() + ".truncated");
+		final byte[] bytes = Files.readAllBytes(archive.toPath());
+		Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length - 16));
+		final File failedFolder = folder();
+		try {
+			Devices.restore(truncated, failedFolder, new Parameters());
+			assertTrue(false);
+		} catch (IOException e) {
+		}
+		assertEquals(0, failedFolder.listFiles().length);
+		truncated.delete();
+		assertEquals(3, Devices.restore(archive, failedFolder, new Parameters()));
+		final Devices repeated = new Devices(failedFolder);
+		assertEquals(Set.of(serialNumber, "100", "101"), repeated.getSerialNumbers());
+		repeated.close();
+		devices.close();
+	}
+
+	@Test
+	public void forEachRecord() throws IOException {
+		final Devices devices = new Devices(folder());
+		devices.register("1", new byte[] { 1 });
+		devices.register("2", new byte[] { 2 });
+		devices.setMessage("2", "before");
+		final Devices.Snapshot snapshot = devices.snapshot();
+		devices.setMessage("2", "after");
+		devices.unregister("1");
+		devices.register("3", new byte[] { 3 });
+		final Map<Long, DeviceRecord> records = new ConcurrentHashMap<>();
+		snapshot.forEachRecord((serialNumber, record) -> assertNull(records.put(serialNumber, record)));
+		assertEquals(Set.of(1l, 2l), records.keySet());
+		assertEquals("before", records.get(2l).message);
+		snapshot.close();
+		devices.close();
+	}
+}
@@ -0,0 +1,78 @@
+package org.c19x.server.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Infection data size and client side parse time in JSON and binary format,
+ * for a number of infectious devices each releasing 14 beacon code seeds. Sizes
+ * are printed on setup.
+ *
+ * Run with : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.c19x.server.data.InfectionDataBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfectionDataBenchmark {
+	@Param({ "100", "10000" })
+	public int devices;
+	private byte[] json;
+	private byte[] binary;
+
+	@SuppressWarnings("unchecked")
+	@Setup
+	public void setup() {
+		final Random random = new Random(devices);
+		final JSONObject jsonObject = new JSONObject();
+		final Map<String, long[]> seeds = new HashMap<>();
+		final long[][] seedsByStatus = new long[][] { new long[devices * 14 / 2], new long[devices * 14 / 2] };
+		for (int status = 0; status < seedsByStatus.length; status++) {
+			for (int i = 0; i < seedsByStatus[status].length; i++) {
+				seedsByStatus[status][i] = random.nextLong();
+				jsonObject.put(Long.toString(seedsByStatus[status][i]), Integer.toString(status + 1));
+			}
+			seeds.put(Integer.toString(status + 1), seedsByStatus[status]);
+		}
+		json = jsonObject.toJSONString().getBytes(StandardCharsets.UTF_8);
+		binary = BinaryInfectionData.encode(seeds);
+		System.err.println("devices=" + devices + ", seeds=" + jsonObject.size() + ", jsonSize=" + json.length
+				+ ", binarySize=" + binary.length + ", ratio=" + ((double) json.length / binary.length));
+	}
+
+	@Benchmark
+	public Object parseJSON() throws Exception {
+		return new JSONParser().parse(new String(json, StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public Object parseBinary() {
+		return BinaryInfectionData.decode(binary);
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(InfectionDataBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,32 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class InfectionDataDeltaTest {
+
+	@Test
+	public void diff() {
+		final Map<String, long[]> from = Map.of("1", new long[] { -5, 1, 3 }, "2", new long[] { 10 });
+		final Map<String, long[]> to = Map.of("1", new long[] { 3, 4 }, "2", new long[] { -5, 10 });
+		final Map<String, long[]> delta = InfectionDataDelta.diff(from, to);
+		assertEquals(3, delta.size());
+		// Added
+		assertArrayEquals(new long[] { 4 }, delta.get("1"));
+		// Status changed
+		assertArrayEquals(new long[] { -5 }, delta.get("2"));
+		// Expired
+		assertArrayEquals(new long[] { 1 }, delta.get(InfectionDataDelta.removed));
+	}
+
+	@Test
+	public void unchanged() {
+		final Map<String, long[]> seeds = Map.of("1", new long[] { 1, 2 });
+		assertTrue(InfectionDataDelta.diff(seeds, seeds).isEmpty());
+	}
+}
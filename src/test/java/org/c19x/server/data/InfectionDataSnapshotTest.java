@@ -0,0 +1,57 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class InfectionDataSnapshotTest {
+
+	private final static InfectionData infectionData() {
+		final SortedMap<Integer, Map<String, long[]>> days = new TreeMap<>();
+		days.put(10, Map.of("1", new long[] { 1, 2 }));
+		days.put(11, Map.of("2", new long[] { -6483623051771494729l }));
+		final Map<String, long[]> seeds = Map.of("1", new long[] { 1, 2 }, "2",
+				new long[] { -6483623051771494729l });
+		return new InfectionData(InfectionData.toJSON(seeds), BinaryInfectionData.encode(seeds), days);
+	}
+
+	@Test
+	public void writeRead() throws IOException {
+		final File file = File.createTempFile("infectionData", ".snapshot");
+		final InfectionData infectionData = infectionData();
+		new InfectionDataSnapshot(1234, infectionData).write(file);
+		final InfectionDataSnapshot snapshot = InfectionDataSnapshot.read(file);
+		assertEquals(1234, snapshot.getVersion());
+		assertArrayEquals(infectionData.toJSONBytes(), snapshot.getInfectionData().toJSONBytes());
+		assertArrayEquals(infectionData.toBinary(), snapshot.getInfectionData().toBinary());
+		assertEquals(infectionData.getDays().keySet(), snapshot.getInfectionData().getDays().keySet());
+		assertArrayEquals(new long[] { -6483623051771494729l },
+				snapshot.getInfectionData().getDays().get(11).get("2"));
+		file.delete();
+	}
+
+	@Test(expected = IOException.class)
+	public void corrupt() throws IOException {
+		final File file = File.createTempFile("infectionData", ".snapshot");
+		new InfectionDataSnapshot(1234, infectionData()).write(file);
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.seek(20);
+			final int value = randomAccessFile.read();
+			randomAccessFile.seek(20);
+			randomAccessFile.write(value ^ 0xFF);
+		}
+		try {
+			InfectionDataSnapshot.read(file);
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+public class InfectionDataWriterTest {
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void sameAsJSONObject() throws Exception {
+		final long[] symptomatic = new long[] { 0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE, 7525003092670007258l };
+		final long[] confirmedDiagnosis = new long[] { -6483623051771494729l };
+		final String custom = "a\"b/\\\u0001";
+		final InfectionDataWriter writer = new InfectionDataWriter(4);
+		writer.write("1", symptomatic);
+		writer.write("2", confirmedDiagnosis);
+		writer.write(custom, new long[] { 42 });
+		final String json = new String(writer.toByteArray(), StandardCharsets.UTF_8);
+		assertEquals(8, writer.size());
+
+		final JSONObject expected = new JSONObject();
+		for (final long seed : symptomatic) {
+			expected.put(Long.toString(seed), "1");
+		}
+		expected.put(Long.toString(confirmedDiagnosis[0]), "2");
+		expected.put("42", custom);
+		assertEquals(expected, new JSONParser().parse(json));
+
+		// Single entry is byte identical
+		final InfectionDataWriter single = new InfectionDataWriter();
+		single.write("2", confirmedDiagnosis);
+		final JSONObject singleExpected = new JSONObject();
+		singleExpected.put(Long.toString(confirmedDiagnosis[0]), "2");
+		assertEquals(singleExpected.toJSONString(), new String(single.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals("{}", new String(new InfectionDataWriter().toByteArray(), StandardCharsets.UTF_8));
+	}
+}
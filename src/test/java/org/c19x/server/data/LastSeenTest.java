@@ -0,0 +1,55 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class LastSeenTest {
+
+	@Test
+	public void touch() {
+		final LastSeen lastSeen = new LastSeen();
+		final long today = System.currentTimeMillis();
+		final long yesterday = today - 24 * 60 * 60 * 1000;
+		assertEquals(-1, lastSeen.get(1));
+		lastSeen.load(1, yesterday);
+		assertTrue(lastSeen.drain().isEmpty());
+		lastSeen.touch(1, today);
+		lastSeen.touch(1, today);
+		// Earlier activity does not move last seen back
+		lastSeen.touch(1, yesterday);
+		lastSeen.touch(5000, yesterday);
+		final Map<Long, Integer> changes = lastSeen.drain();
+		assertEquals(2, changes.size());
+		assertEquals(LastSeen.day(today), (int) changes.get(1l));
+		assertEquals(LastSeen.day(yesterday), (int) changes.get(5000l));
+		assertTrue(lastSeen.drain().isEmpty());
+
+		final Set<Long> before = lastSeen.before(LastSeen.day(today));
+		assertEquals(1, before.size());
+		assertTrue(before.contains(5000l));
+		lastSeen.remove(5000);
+		assertEquals(-1, lastSeen.get(5000));
+		assertTrue(lastSeen.before(LastSeen.day(today) + 1).contains(1l));
+	}
+
+	@Test
+	public void expiry() {
+		final LastSeen lastSeen = new LastSeen();
+		final long day = 24 * 60 * 60 * 1000;
+		final long today = System.currentTimeMillis();
+		for (long serialNumber = 1; serialNumber <= 10; serialNumber++) {
+			lastSeen.touch(serialNumber, today - serialNumber * day);
+		}
+		// Device seen again moves out of expiry range
+		lastSeen.touch(9, today);
+		// Ordered by day last seen, oldest first
+		assertEquals(List.of(10l, 8l, 7l, 6l), new ArrayList<>(lastSeen.before(LastSeen.day(today - 5 * day))));
+	}
+}
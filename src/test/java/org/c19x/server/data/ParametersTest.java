@@ -1,5 +1,7 @@
 package org.c19x.server.data;
 
+import static org.junit.Assert.assertEquals;
+
 import java.math.BigInteger;
 import java.util.Base64;
 
@@ -24,4 +26,16 @@ public class ParametersTest {
 		System.err.println(Base64.getEncoder().encodeToString(bytes));
 	}
 
+	@Test
+	public void dayCodesInterval() {
+		final Parameters parameters = new Parameters();
+		parameters.fromJSON("{\"active\":\"true\",\"dayCodesInterval\":\"0\"}");
+		assertEquals(1, parameters.getDayCodesInterval());
+		parameters.fromJSON("{\"active\":\"true\",\"dayCodesInterval\":\"-5\"}");
+		assertEquals(1, parameters.getDayCodesInterval());
+		parameters.fromJSON("{\"active\":\"true\",\"dayCodesInterval\":\"100000\"}");
+		assertEquals(DayCodes.days, parameters.getDayCodesInterval());
+		parameters.fromJSON("{\"active\":\"true\",\"dayCodesInterval\":\"7\"}");
+		assertEquals(7, parameters.getDayCodesInterval());
+	}
 }
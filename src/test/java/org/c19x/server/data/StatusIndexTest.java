@@ -0,0 +1,37 @@
+package org.c19x.server.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class StatusIndexTest {
+
+	@Test
+	public void setAndExpire() {
+		final StatusIndex statusIndex = new StatusIndex();
+		statusIndex.set("1", "1", 100);
+		statusIndex.set("2", "1", 200);
+		statusIndex.set("3", "2", 300);
+		statusIndex.set("4", "0", 400);
+		assertEquals(3, statusIndex.size());
+		assertEquals(2, statusIndex.get("1", 0).size());
+		assertEquals(2, statusIndex.get("1", 100).size());
+		assertEquals(1, statusIndex.get("1", 101).size());
+		assertEquals("2", statusIndex.get("1", 101).first().serialNumber);
+		assertEquals(0, statusIndex.get("3", 0).size());
+
+		// Status change moves device between statuses
+		statusIndex.set("2", "2", 500);
+		assertEquals(1, statusIndex.get("1", 0).size());
+		assertEquals(2, statusIndex.get("2", 0).size());
+
+		// Normal status and removal drop device
+		statusIndex.set("1", "0", 600);
+		statusIndex.remove("3");
+		assertTrue(statusIndex.get("1", 0).isEmpty());
+		assertEquals(1, statusIndex.get("2", 0).size());
+		statusIndex.clear();
+		assertEquals(0, statusIndex.size());
+	}
+}
@@ -0,0 +1,96 @@
+package org.c19x.server.data;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.c19x.util.KeyValueStore;
+import org.mapdb.Serializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Device store workload on each storage engine, with concurrent registrations
+ * and status reports awaiting durable commit, and status lookups, using the
+ * default group commit parameters.
+ *
+ * Run with : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.c19x.server.data.StorageEngineBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class StorageEngineBenchmark {
+	private final static int devices = 100000;
+	@Param({ KeyValueStore.mapdb, KeyValueStore.log, KeyValueStore.memory })
+	public String engine;
+	private final AtomicLong serialNumber = new AtomicLong();
+	private File folder;
+	private KeyValueStore<Long, DeviceRecord> store;
+
+	@Setup
+	public void setup() throws Exception {
+		folder = Files.createTempDirectory("storageEngine").toFile();
+		final Parameters parameters = new Parameters();
+		store = KeyValueStore.open(engine, new File(folder, "records"), Serializer.LONG,
+				DeviceRecordSerializer.instance, parameters.getStoreCommitInterval(),
+				parameters.getStoreCommitBatch());
+		for (long i = 0; i < devices; i += 1000) {
+			final Map<Long, DeviceRecord> batch = new HashMap<>();
+			for (long j = i; j < i + 1000; j++) {
+				batch.put(j, new DeviceRecord(new byte[32]));
+			}
+			store.putAll(batch).join();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		store.close();
+		Files.walk(folder.toPath()).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+	}
+
+	@Benchmark
+	public void register() {
+		// Serial numbers wrap to bound the store size
+		store.put(devices + serialNumber.getAndIncrement() % devices, new DeviceRecord(new byte[32])).join();
+	}
+
+	@Benchmark
+	public void setStatus() {
+		final long timestamp = System.currentTimeMillis();
+		store.update(ThreadLocalRandom.current().nextLong(devices), record -> record.withStatus("1", timestamp));
+		store.sync().join();
+	}
+
+	@Benchmark
+	public String getStatus() {
+		return store.get(ThreadLocalRandom.current().nextLong(devices)).getStatus();
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(StorageEngineBenchmark.class.getSimpleName()).build()).run();
+	}
+}
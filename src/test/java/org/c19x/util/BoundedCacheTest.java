@@ -0,0 +1,72 @@
+package org.c19x.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+	@Test
+	public void bounded() {
+		final BoundedCache<Integer, String> cache = new BoundedCache<>(160);
+		final AtomicInteger loads = new AtomicInteger();
+		for (int i = 0; i < 1000; i++) {
+			cache.get(i, k -> {
+				loads.incrementAndGet();
+				return k.toString();
+			});
+		}
+		assertEquals(1000, loads.get());
+		assertTrue(cache.size() <= 160);
+		// Recently used entries are retained
+		assertEquals("999", cache.get(999, k -> null));
+		cache.remove(999);
+		assertNull(cache.get(999));
+		// Null is not cached
+		assertNull(cache.get(-1, k -> null));
+		assertNull(cache.get(-1));
+	}
+
+	@Test
+	public void loadOutsideLock() throws Exception {
+		final BoundedCache<Integer, String> cache = new BoundedCache<>(160);
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<String> slow = executor.submit(() -> cache.get(0, k -> {
+				loading.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				return k.toString();
+			}));
+			assertTrue(loading.await(10, TimeUnit.SECONDS));
+			// Keys 0 and 16 share a segment, a slow load does not block other keys
+			assertEquals("16", cache.get(16, k -> k.toString()));
+			// Value loaded concurrently is kept
+			assertEquals("0", cache.get(0, k -> k.toString()));
+			release.countDown();
+			assertEquals("0", slow.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		// Value loaded during a remove is returned but not cached
+		cache.remove(1);
+		assertEquals("1", cache.get(1, k -> {
+			cache.remove(k);
+			return k.toString();
+		}));
+		assertNull(cache.get(1));
+	}
+}
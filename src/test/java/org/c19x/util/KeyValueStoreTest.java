@@ -0,0 +1,199 @@
+package org.c19x.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+import org.mapdb.Serializer;
+
+public class KeyValueStoreTest {
+
+	@Test
+	public void groupCommit() throws IOException {
+		final File file = File.createTempFile("keyValueStore", ".db");
+		file.delete();
+		final KeyValueStore<String, String> store = new MapDBKeyValueStore<>(file, Serializer.STRING, Serializer.STRING,
+				10, 64);
+		final List<CompletableFuture<Void>> futures = new ArrayList<>();
+		IntStream.range(0, 1000).parallel().forEach(i -> {
+			final CompletableFuture<Void> future = store.put(Integer.toString(i), Integer.toString(i));
+			synchronized (futures) {
+				futures.add(future);
+			}
+		});
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+		assertEquals("2", store.update("1", v -> "2"));
+		assertNull(store.update("missing", v -> "2"));
+		store.sync().join();
+		store.remove("0");
+		store.close();
+
+		final KeyValueStore<String, String> reopened = new MapDBKeyValueStore<>(file, Serializer.STRING,
+				Serializer.STRING);
+		assertEquals(999, reopened.keys().size());
+		assertEquals("2", reopened.get("1"));
+		assertNull(reopened.get("0"));
+		reopened.close();
+	}
+
+	@Test
+	public void batchCommit() throws Exception {
+		final File file = File.createTempFile("keyValueStore", ".db");
+		file.delete();
+		final KeyValueStore<String, String> store = new MapDBKeyValueStore<>(file, Serializer.STRING, Serializer.STRING,
+				1, 1);
+		store.putAll(Map.of("a", "1", "b", "1")).join();
+		final CountDownLatch updating = new CountDownLatch(1);
+		final AtomicReference<CompletableFuture<Void>> concurrent = new AtomicReference<>();
+		final Thread thread = new Thread(() -> {
+			try {
+				updating.await();
+				concurrent.set(store.put("c", "1"));
+			} catch (InterruptedException e) {
+			}
+		});
+		thread.start();
+		store.updateAll(List.of("a", "b"), (k, v) -> {
+			if (k.equals("a")) {
+				updating.countDown();
+				try {
+					thread.join(10000);
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+				}
+				// Mutation during batch is not committed before the batch completes
+				assertFalse(concurrent.get().isDone());
+			}
+			return "2";
+		}).get(10, TimeUnit.SECONDS);
+		concurrent.get().get(10, TimeUnit.SECONDS);
+		assertEquals("2", store.get("b"));
+		store.close();
+	}
+
+	@Test
+	public void immediateCommit() throws IOException {
+		final File file = File.createTempFile("keyValueStore", ".db");
+		file.delete();
+		final KeyValueStore<String, String> store = new MapDBKeyValueStore<>(file, Serializer.STRING, Serializer.STRING);
+		assertTrue(store.put("a", "b").isDone());
+		assertTrue(store.sync().isDone());
+		assertEquals("b", store.get("a"));
+		store.close();
+	}
+
+	@Test
+	public void engines() throws IOException {
+		for (final String engine : new String[] { KeyValueStore.mapdb, KeyValueStore.log, KeyValueStore.memory }) {
+			final File file = File.createTempFile("keyValueStore", ".db");
+			file.delete();
+			final KeyValueStore<Long, String> store = KeyValueStore.open(engine, file, Serializer.LONG,
+					Serializer.STRING, 10, 64);
+			store.putAll(Map.of(1l, "a", 2l, "b", 3l, "c")).join();
+			assertEquals("A", store.update(1l, v -> v.toUpperCase()));
+			store.updateAll(List.of(2l, 4l), (k, v) -> v + k).join();
+			store.removeAll(List.of(3l)).join();
+			store.sync().join();
+			assertEquals(Set.of(1l, 2l), store.keys());
+			assertEquals("b2", store.get(2l));
+			assertNull(store.get(4l));
+			store.close();
+			if (!engine.equals(KeyValueStore.memory)) {
+				final KeyValueStore<Long, String> reopened = KeyValueStore.open(engine, file, Serializer.LONG,
+						Serializer.STRING, 0, 1);
+				assertEquals(engine, 2, reopened.entries().size());
+				assertEquals(engine, "A", reopened.get(1l));
+				reopened.close();
+			}
+		}
+	}
+
+	@Test
+	public void readDuringCompaction() throws Exception {
+		final File file = File.createTempFile("keyValueStore", ".db");
+		file.delete();
+		final MapDBKeyValueStore<Long, String> store = new MapDBKeyValueStore<>(file, Serializer.LONG,
+				Serializer.STRING);
+		store.retireDelay = 0;
+		final Map<Long, String> entries = new HashMap<>();
+		for (long i = 0; i < 20000; i++) {
+			entries.put(i, "value-" + i);
+		}
+		store.putAll(entries).join();
+		store.removeAll(new ArrayList<>(entries.keySet()).subList(0, 10000)).join();
+		final int count = store.read(view -> {
+			int read = 0;
+			for (final Map.Entry<Long, String> e : view) {
+				if (read++ == 100) {
+					assertTrue(store.compact() > 0);
+					// Commit after the retire delay does not close the file being read
+					store.put(-1l, "after").join();
+					// Previous file is not replaced while it is being read
+					assertEquals(0, store.compact());
+				}
+				assertEquals("value-" + e.getKey(), e.getValue());
+			}
+			return read;
+		});
+		assertEquals(10000, count);
+		store.put(-2l, "closed").join();
+		assertEquals(10002, store.keys().size());
+		store.close();
+	}
+
+	@Test
+	public void compact() throws Exception {
+		final File file = File.createTempFile("keyValueStore", ".db");
+		file.delete();
+		final KeyValueStore<Long, String> store = new MapDBKeyValueStore<>(file, Serializer.LONG, Serializer.STRING,
+				10, 256);
+		final Map<Long, String> entries = new HashMap<>();
+		for (long i = 0; i < 50000; i++) {
+			entries.put(i, "value-" + i + "-0123456789012345678901234567890123456789012345678901234567890123");
+		}
+		store.putAll(entries).join();
+		store.removeAll(new ArrayList<>(entries.keySet()).subList(0, 45000)).join();
+		final long before = store.getFileSize();
+		assertTrue(store.getFreeRatio() > 0.5);
+
+		// Writes continue during compaction
+		final Thread writer = new Thread(() -> {
+			for (long i = 0; i < 1000; i++) {
+				store.put(100000 + i, "new");
+				store.remove(45000 + i);
+			}
+		});
+		writer.start();
+		final long reclaimed = store.compact();
+		writer.join();
+		store.sync().join();
+		assertTrue(reclaimed > 0);
+		assertTrue(store.getFileSize() < before);
+		assertTrue(store.getFreeRatio() < 0.5);
+		assertEquals(5000, store.keys().size());
+		store.close();
+
+		final KeyValueStore<Long, String> reopened = new MapDBKeyValueStore<>(file, Serializer.LONG,
+				Serializer.STRING);
+		assertEquals(5000, reopened.keys().size());
+		assertNull(reopened.get(45000l));
+		assertEquals("new", reopened.get(100999l));
+		assertEquals(entries.get(49999l), reopened.get(49999l));
+		reopened.close();
+	}
+}
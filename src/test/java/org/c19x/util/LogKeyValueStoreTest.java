@@ -0,0 +1,70 @@
+package org.c19x.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+import org.mapdb.Serializer;
+
+public class LogKeyValueStoreTest {
+
+	private final static File file() throws IOException {
+		final File file = File.createTempFile("logKeyValueStore", ".log");
+		file.delete();
+		return file;
+	}
+
+	@Test
+	public void truncateIncompleteRecord() throws IOException {
+		final File file = file();
+		final LogKeyValueStore<Long, String> store = new LogKeyValueStore<>(file, Serializer.LONG, Serializer.STRING);
+		store.put(1l, "a");
+		store.put(2l, "b");
+		store.close();
+		final long length = file.length();
+		// Crash while appending third record
+		try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.setLength(length + 5);
+		}
+		final LogKeyValueStore<Long, String> reopened = new LogKeyValueStore<>(file, Serializer.LONG,
+				Serializer.STRING);
+		assertEquals(length, file.length());
+		assertEquals("b", reopened.get(2l));
+		reopened.put(3l, "c");
+		reopened.close();
+
+		final LogKeyValueStore<Long, String> recovered = new LogKeyValueStore<>(file, Serializer.LONG,
+				Serializer.STRING);
+		assertEquals(3, recovered.keys().size());
+		recovered.close();
+	}
+
+	@Test
+	public void compact() throws IOException {
+		final File file = file();
+		final LogKeyValueStore<Long, String> store = new LogKeyValueStore<>(file, Serializer.LONG, Serializer.STRING,
+				10, 256);
+		for (int i = 0; i < 10000; i++) {
+			store.put((long) (i % 10), Integer.toString(i));
+		}
+		store.remove(0l);
+		store.sync().join();
+		// Compaction is triggered by commit once records exceed live entries
+		assertTrue(file.length() < 10000 * 8);
+		store.put(1l, "x");
+		store.close();
+
+		final LogKeyValueStore<Long, String> reopened = new LogKeyValueStore<>(file, Serializer.LONG,
+				Serializer.STRING);
+		assertEquals(9, reopened.keys().size());
+		assertNull(reopened.get(0l));
+		assertEquals("x", reopened.get(1l));
+		assertEquals("9999", reopened.get(9l));
+		reopened.close();
+	}
+}
@@ -0,0 +1,73 @@
+package org.c19x.util;
+
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Decryption of an authenticated status request bundle using a cached key and
+ * the thread local cipher, compared with a provider lookup and key
+ * construction per call (legacy).
+ *
+ * Run with : mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.c19x.util.SecurityUtilBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SecurityUtilBenchmark {
+	private final byte[] sharedSecret = new byte[32];
+	private SecretKeySpec secretKey;
+	private String bundle;
+
+	@Setup
+	public void setup() throws Exception {
+		SecurityUtil.getSecureRandom().nextBytes(sharedSecret);
+		secretKey = SecurityUtil.getSecretKey(sharedSecret);
+		final byte[] iv = new byte[16];
+		SecurityUtil.getSecureRandom().nextBytes(iv);
+		final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sharedSecret, "AES"), new IvParameterSpec(iv));
+		final byte[] encrypted = cipher.doFinal((System.currentTimeMillis() + "|2|pattern").getBytes());
+		bundle = Base64.getUrlEncoder().encodeToString(iv) + "," + Base64.getUrlEncoder().encodeToString(encrypted);
+	}
+
+	@Benchmark
+	public String decrypt() {
+		return SecurityUtil.decrypt(secretKey, bundle);
+	}
+
+	@Benchmark
+	public String decryptLegacy() throws Exception {
+		final String ivString = bundle.substring(0, bundle.indexOf(','));
+		final String cryptString = bundle.substring(ivString.length() + 1);
+		final IvParameterSpec ivParameterSpec = new IvParameterSpec(Base64.getUrlDecoder().decode(ivString));
+		final SecretKeySpec secretKeySpec = new SecretKeySpec(sharedSecret, "AES");
+		final Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5PADDING");
+		cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, ivParameterSpec);
+		return new String(cipher.doFinal(Base64.getUrlDecoder().decode(cryptString)));
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder().include(SecurityUtilBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,96 @@
+package org.c19x.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mapdb.Serializer;
+
+public class StoreCompactorTest {
+
+	@Test
+	public void check() throws IOException {
+		final File file = File.createTempFile("storeCompactor", ".db");
+		file.delete();
+		final KeyValueStore<Long, String> store = new MapDBKeyValueStore<>(file, Serializer.LONG, Serializer.STRING);
+		final Map<Long, String> entries = new HashMap<>();
+		for (long i = 0; i < 50000; i++) {
+			entries.put(i, "value-" + i + "-0123456789012345678901234567890123456789012345678901234567890123");
+		}
+		store.putAll(entries).join();
+		final StoreCompactor compactor = new StoreCompactor(Map.of("store", store), 0.5, 10);
+		store.removeAll(new ArrayList<>(entries.keySet()).subList(0, 45000)).join();
+		for (long i = 0; i < 100; i++) {
+			store.put(i, "busy");
+		}
+		// Not compacted under traffic
+		compactor.check();
+		StoreCompactor.Metrics metrics = compactor.getMetrics().get("store");
+		assertEquals(101, metrics.mutations);
+		assertTrue(metrics.freeRatio > 0.5);
+		assertEquals(0, metrics.compactions);
+
+		// Compacted once traffic is low
+		compactor.check();
+		metrics = compactor.getMetrics().get("store");
+		assertEquals(0, metrics.mutations);
+		assertEquals(1, metrics.compactions);
+		assertTrue(metrics.lastReclaimedBytes > 0);
+		assertEquals(metrics.lastReclaimedBytes, metrics.reclaimedBytes);
+
+		// Nothing left to reclaim
+		compactor.check();
+		assertEquals(1, compactor.getMetrics().get("store").compactions);
+		assertEquals(5100, store.keys().size());
+		compactor.close();
+		store.close();
+	}
+
+	@Test
+	public void metricsDuringCompaction() throws Exception {
+		final CountDownLatch compacting = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final KeyValueStore<Long, String> store = new MemoryKeyValueStore<>() {
+			@Override
+			public long getFileSize() {
+				return 64 * 1024 * 1024;
+			}
+
+			@Override
+			public double getFreeRatio() {
+				return 0.9;
+			}
+
+			@Override
+			public long compact() {
+				compacting.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+				return 1;
+			}
+		};
+		final StoreCompactor compactor = new StoreCompactor(Map.of("store", store), 0.5, 10);
+		final Thread thread = new Thread(() -> compactor.check());
+		thread.start();
+		assertTrue(compacting.await(10, TimeUnit.SECONDS));
+		// Metrics are available while compaction is in progress
+		final StoreCompactor.Metrics metrics = compactor.getMetrics().get("store");
+		assertNotNull(metrics);
+		assertEquals(0, metrics.compactions);
+		release.countDown();
+		thread.join(10000);
+		assertEquals(1, compactor.getMetrics().get("store").compactions);
+		compactor.close();
+	}
+}
@@ -0,0 +1,68 @@
+package org.c19x.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TinyLfuCacheTest {
+
+	@Test
+	public void bounded() {
+		final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(1600);
+		for (int i = 0; i < 10000; i++) {
+			cache.get(i, k -> k.toString());
+		}
+		assertTrue(cache.size() <= 1600);
+		// Null is not cached
+		assertNull(cache.get(-1, k -> null));
+		assertNull(cache.get(-1));
+	}
+
+	@Test
+	public void scanResistant() {
+		final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(1600);
+		// Frequently used entries
+		for (int n = 0; n < 10; n++) {
+			for (int i = 0; i < 800; i++) {
+				cache.get(i, k -> k.toString());
+			}
+		}
+		// Scan of entries used once
+		for (int i = 1000; i < 20000; i++) {
+			cache.get(i, k -> k.toString());
+		}
+		int retained = 0;
+		for (int i = 0; i < 800; i++) {
+			if (cache.get(i) != null) {
+				retained++;
+			}
+		}
+		assertTrue(retained > 700);
+	}
+
+	@Test
+	public void pinned() {
+		final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(160);
+		cache.pin(-1);
+		assertEquals("-1", cache.get(-1, k -> k.toString()));
+		for (int i = 0; i < 10000; i++) {
+			cache.get(i, k -> k.toString());
+		}
+		assertEquals("-1", cache.get(-1));
+		cache.unpin(-1);
+		for (int i = 10000; i < 20000; i++) {
+			cache.get(i, k -> k.toString());
+		}
+		assertTrue(cache.size() <= 160);
+		cache.pin(-2);
+		cache.remove(-2);
+		cache.get(-2, k -> k.toString());
+		// Removal also unpins
+		for (int i = 20000; i < 30000; i++) {
+			cache.get(i, k -> k.toString());
+		}
+		assertNull(cache.get(-2));
+	}
+}